@@ -19,8 +19,14 @@ package io.goobox.sync.storj;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -46,21 +52,35 @@ public class App implements ShutdownListener {
 
     private static final Logger logger = LoggerFactory.getLogger(App.class);
 
-    private static App instance;
+    // the callback results are mostly written to the DB, which is locked
+    private static final int COMPLETION_THREADS = 2;
 
-    private static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    private static App instance;
 
     private Path syncDir;
+    private long fullScanInterval = TimeUnit.HOURS.toMillis(1);
+    private long mergeMemoryBudget;
+    private long maxPollInterval = TimeUnit.MINUTES.toMillis(15);
+    private TaskPolicy taskPolicy = TaskPolicy.DEFAULT;
+    private boolean virtualThreads;
+    private int storjClients = 2;
+    private Map<Workload, Integer> concurrency = new EnumMap<>(Workload.class);
+    private Map<RetryPolicy.Operation, Long> stallTimeouts = new EnumMap<>(RetryPolicy.Operation.class);
 
     private Storj storj;
+    private StorjClientPool storjClientPool;
+    private ThreadPoolExecutor completionExecutor;
     private Bucket gooboxBucket;
     private TaskQueue tasks;
     private TaskExecutor taskExecutor;
     private FileWatcher fileWatcher;
+    private LocalTree localTree;
+    private PollInterval pollInterval;
     private IpcExecutor ipcExecutor;
     private OverlayHelper overlayHelper;
 
-    private StorjExecutorService storjExecutorService;
+    private Map<Workload, StorjExecutorService> executors = new EnumMap<>(Workload.class);
+    private Map<Workload, ConcurrencyLimit> limits = new EnumMap<>(Workload.class);
 
     public App() {
         this.syncDir = Utils.getSyncDir();
@@ -85,6 +105,60 @@ public class App implements ShutdownListener {
                 .hasArg()
                 .desc("set the sync dir")
                 .build());
+        opts.addOption(Option.builder()
+                .longOpt("full-scan-interval")
+                .hasArg()
+                .type(Number.class)
+                .desc("minutes between full scans of the sync dir (default 60)")
+                .build());
+        opts.addOption(Option.builder()
+                .longOpt("merge-memory-budget")
+                .hasArg()
+                .type(Number.class)
+                .desc("check for changes with a sort-merge using up to this many MB before spilling to disk")
+                .build());
+        opts.addOption(Option.builder()
+                .longOpt("max-poll-interval")
+                .hasArg()
+                .type(Number.class)
+                .desc("maximum minutes between checks for cloud changes while idle (default 15)")
+                .build());
+        opts.addOption(Option.builder()
+                .longOpt("task-policy")
+                .hasArg()
+                .desc("order of the queued tasks: fifo, smallest-first or recently-modified-first (default smallest-first)")
+                .build());
+        opts.addOption(Option.builder()
+                .longOpt("storj-clients")
+                .hasArg()
+                .type(Number.class)
+                .desc("number of libstorj instances the cloud calls are spread over (default 2)")
+                .build());
+        opts.addOption(Option.builder()
+                .longOpt("virtual-threads")
+                .desc("start each task on its own virtual thread if the JVM supports it (Java 21 or later)")
+                .build());
+        for (Workload workload : Workload.values()) {
+            opts.addOption(Option.builder()
+                    .longOpt(workload.getId() + "-concurrency")
+                    .hasArg()
+                    .type(Number.class)
+                    .desc((workload.isTransfer() ? "maximum concurrent " : "concurrent ") + workload.getId()
+                            + " tasks (default " + workload.getDefaultConcurrency() + ")")
+                    .build());
+        }
+        for (RetryPolicy.Operation operation : RetryPolicy.Operation.values()) {
+            if (operation.getStallTimeout() > 0) {
+                opts.addOption(Option.builder()
+                        .longOpt(operation.getId() + "-stall-timeout")
+                        .hasArg()
+                        .type(Number.class)
+                        .desc("seconds without a callback after which a " + operation.getId()
+                                + " call is aborted, 0 to never abort (default "
+                                + TimeUnit.MILLISECONDS.toSeconds(operation.getStallTimeout()) + ")")
+                        .build());
+            }
+        }
 
         try {
             CommandLine cmd = new DefaultParser().parse(opts, args);
@@ -108,6 +182,54 @@ public class App implements ShutdownListener {
                 instance = new App();
             }
 
+            if (cmd.hasOption("full-scan-interval")) {
+                Number minutes = (Number) cmd.getParsedOptionValue("full-scan-interval");
+                instance.fullScanInterval = TimeUnit.MINUTES.toMillis(minutes.longValue());
+            }
+
+            if (cmd.hasOption("merge-memory-budget")) {
+                Number megabytes = (Number) cmd.getParsedOptionValue("merge-memory-budget");
+                instance.mergeMemoryBudget = megabytes.longValue() * 1024 * 1024;
+            }
+
+            if (cmd.hasOption("max-poll-interval")) {
+                Number minutes = (Number) cmd.getParsedOptionValue("max-poll-interval");
+                instance.maxPollInterval = TimeUnit.MINUTES.toMillis(minutes.longValue());
+            }
+
+            if (cmd.hasOption("task-policy")) {
+                String policy = cmd.getOptionValue("task-policy");
+                try {
+                    instance.taskPolicy = TaskPolicy.parse(policy);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Unknown task policy: {} - using {}", policy, TaskPolicy.DEFAULT);
+                    instance.taskPolicy = TaskPolicy.DEFAULT;
+                }
+            }
+
+            if (cmd.hasOption("storj-clients")) {
+                Number count = (Number) cmd.getParsedOptionValue("storj-clients");
+                instance.storjClients = Math.max(1, count.intValue());
+            }
+
+            instance.virtualThreads = cmd.hasOption("virtual-threads");
+
+            for (Workload workload : Workload.values()) {
+                String option = workload.getId() + "-concurrency";
+                if (cmd.hasOption(option)) {
+                    Number count = (Number) cmd.getParsedOptionValue(option);
+                    instance.concurrency.put(workload, Math.max(1, count.intValue()));
+                }
+            }
+
+            for (RetryPolicy.Operation operation : RetryPolicy.Operation.values()) {
+                String option = operation.getId() + "-stall-timeout";
+                if (cmd.hasOption(option)) {
+                    Number seconds = (Number) cmd.getParsedOptionValue(option);
+                    instance.stallTimeouts.put(operation, TimeUnit.SECONDS.toMillis(seconds.longValue()));
+                }
+            }
+
             instance.init(resetAuthFile);
         } catch (ParseException e) {
             logger.error("Failed to parse command line options", e);
@@ -123,10 +245,30 @@ public class App implements ShutdownListener {
         return syncDir;
     }
 
+    public long getFullScanInterval() {
+        return fullScanInterval;
+    }
+
+    /**
+     * Returns the memory budget in bytes of the sort-merge check for changes,
+     * or 0 if the check is done in memory. The sort-merge check does not use
+     * the dir digests of the check in memory.
+     */
+    public long getMergeMemoryBudget() {
+        return mergeMemoryBudget;
+    }
+
     public Storj getStorj() {
         return storj;
     }
 
+    /**
+     * Returns the client with the fewest calls in flight.
+     */
+    public StorjClient getStorjClient() {
+        return storjClientPool.get();
+    }
+
     public Bucket getGooboxBucket() {
         return gooboxBucket;
     }
@@ -147,14 +289,46 @@ public class App implements ShutdownListener {
         return fileWatcher;
     }
 
+    public LocalTree getLocalTree() {
+        return localTree;
+    }
+
+    public PollInterval getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Returns the adaptive limit of the transfers of the workload, or
+     * <code>null</code> if the workload is not a transfer.
+     */
+    public ConcurrencyLimit getConcurrencyLimit(Workload workload) {
+        return limits.get(workload);
+    }
+
     public OverlayHelper getOverlayHelper() {
         return overlayHelper;
     }
 
     private void init(boolean resetAuthFile) {
-        storj = new Storj();
-        storj.setConfigDirectory(Utils.getDataDir().toFile());
-        storj.setDownloadDirectory(syncDir.toFile());
+        storj = newStorj();
+
+        // all instances share the keys in the config directory
+        Storj[] instances = new Storj[storjClients];
+        instances[0] = storj;
+        for (int i = 1; i < instances.length; i++) {
+            instances[i] = newStorj();
+        }
+        completionExecutor = new ThreadPoolExecutor(COMPLETION_THREADS, COMPLETION_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), completionThreadFactory());
+        storjClientPool = new StorjClientPool(completionExecutor, instances);
+        storjClientPool.registerMBean();
+
+        Watchdog watchdog = storjClientPool.getWatchdog();
+        for (Map.Entry<RetryPolicy.Operation, Long> entry : stallTimeouts.entrySet()) {
+            watchdog.setStallTimeout(entry.getKey(), entry.getValue());
+        }
+        watchdog.registerMBean();
+        watchdog.start();
 
         if (resetAuthFile) {
             storj.deleteKeys();
@@ -177,12 +351,41 @@ public class App implements ShutdownListener {
         }
 
         overlayHelper = new OverlayHelper(syncDir, new StorjOverlayIconProvider());
-        storjExecutorService = new StorjExecutorService(NUM_THREADS, new LinkedBlockingQueue<Runnable>());
 
-        tasks = new TaskQueue();
+        localTree = new LocalTree(syncDir, fullScanInterval);
+        pollInterval = new PollInterval(maxPollInterval);
+
+        tasks = new TaskQueue(taskPolicy);
         tasks.add(new CheckStateTask());
 
-        taskExecutor = new TaskExecutor(tasks, storjExecutorService);
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            logger.warn("Virtual threads are not supported by this JVM - using thread pools");
+            virtualThreads = false;
+        }
+
+        for (Workload workload : Workload.values()) {
+            Integer count = concurrency.get(workload);
+            StorjExecutorService executor = new StorjExecutorService(workload,
+                    (count != null) ? count : workload.getDefaultConcurrency(), tasks, virtualThreads);
+            executor.registerMBean();
+            executors.put(workload, executor);
+
+            if (workload.isTransfer()) {
+                ConcurrencyLimit limit = new ConcurrencyLimit(workload, executor.getConcurrency());
+                limit.registerMBean();
+                limits.put(workload, limit);
+            }
+        }
+
+        CircuitBreaker breaker = storjClientPool.getCircuitBreaker();
+        breaker.registerMBean();
+        breaker.addCloseListener(() -> {
+            for (ConcurrencyLimit limit : limits.values()) {
+                limit.onResume();
+            }
+        });
+
+        taskExecutor = new TaskExecutor(tasks, executors, limits, breaker);
         fileWatcher = new FileWatcher();
 
         fileWatcher.start();
@@ -197,14 +400,34 @@ public class App implements ShutdownListener {
             overlayHelper.shutdown();
         }
 
-        if (storjExecutorService != null) {
-            storjExecutorService.shutdownNow();
-            logger.info("Storj executor service shutdown");
+        for (StorjExecutorService executor : executors.values()) {
+            executor.shutdownNow();
+        }
+        if (completionExecutor != null) {
+            completionExecutor.shutdownNow();
+        }
+        if (storjClientPool != null) {
+            storjClientPool.getWatchdog().stop();
+        }
+        if (!executors.isEmpty()) {
+            logger.info("Storj executor services shutdown");
         }
 
         System.exit(0);
     }
 
+    private static ThreadFactory completionThreadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, "storj-completion-" + count.incrementAndGet());
+    }
+
+    private Storj newStorj() {
+        Storj storj = new Storj();
+        storj.setConfigDirectory(Utils.getDataDir().toFile());
+        storj.setDownloadDirectory(syncDir.toFile());
+        return storj;
+    }
+
     private boolean checkAndCreateSyncDir() {
         logger.info("Checking if local Goobox sync folder exists");
         return checkAndCreateFolder(getSyncDir());
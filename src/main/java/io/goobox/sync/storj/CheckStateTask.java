@@ -17,34 +17,39 @@
 package io.goobox.sync.storj;
 
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.text.ParseException;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
-import io.goobox.sync.storj.db.SyncFile;
-import io.goobox.sync.storj.db.SyncState;
+import io.goobox.sync.storj.db.SyncSnapshot;
 import io.storj.libstorj.Bucket;
 import io.storj.libstorj.File;
-import io.storj.libstorj.ListFilesCallback;
 
 public class CheckStateTask implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(CheckStateTask.class);
 
+    // names processed by a sort-merge check between writes to the DB
+    private static final int MERGE_BATCH_SIZE = 1000;
+
     private Bucket gooboxBucket;
     private TaskQueue tasks;
     private static boolean idle;
+    // listings failed in a row
+    private static final AtomicInteger failures = new AtomicInteger();
+    // dir digests of the last listing, reused while its fingerprint is the same
+    private static String cloudFingerprint;
+    private static Map<String, String> cloudDigests;
+
+    // local paths changed since the last check, null after a full scan
+    private DirtyPaths dirtyPaths;
 
     public CheckStateTask() {
         this.gooboxBucket = App.getInstance().getGooboxBucket();
@@ -59,267 +64,202 @@ public class CheckStateTask implements Runnable {
             return;
         }
 
-        logger.info("Checking for changes");
-
-        final CountDownLatch latch = new CountDownLatch(1);
-
-        App.getInstance().getStorj().listFiles(gooboxBucket, new ListFilesCallback() {
-            @Override
-            public void onFilesReceived(String bucketId, File[] files) {
-                processFiles(files);
-
-                DB.commit();
-
-                if (tasks.isEmpty()) {
-                    setIdle();
+        StorjClient client = App.getInstance().getStorjClient();
+        CircuitBreaker breaker = client.getCircuitBreaker();
+        if (!breaker.tryProbe()) {
+            // local changes are still collected by the file watcher
+            logger.info("Skip checking for changes - offline");
+            tasks.add(this, System.currentTimeMillis()
+                    + Math.max(breaker.getRemainingOpenTime(), RetryPolicy.BASE_DELAY));
+            return;
+        }
 
-                    // Sleep some time to avoid overloading the bridge
-                    tasks.add(new SleepTask());
-                }
-                // Add itself to the queueAdd itself to the queue
-                tasks.add(CheckStateTask.this);
-                latch.countDown();
-            }
+        logger.info("Checking for changes");
 
-            @Override
-            public void onError(String bucketId, int code, String message) {
-                logger.error("{} ({})", message, code);
-                // wait 3 seconds before trying again
-                try {
-                    Thread.sleep(3000);
-                    tasks.add(CheckStateTask.this);
-                } catch (InterruptedException e) {
-                    // interrupted - stop execution
-                    return;
-                } finally {
-                    latch.countDown();
-                }
-            }
-        });
+        // the tasks finishing from now on may not be in the listing
+        tasks.startCheck();
 
+        // checks run one at a time, so wait for the listing here
+        File[] files;
         try {
-            latch.await();
+            files = StorjClient.await(client.listFiles(gooboxBucket));
+        } catch (StorjException e) {
+            logger.error("{} ({})", e.getMessage(), e.getCode());
+            tasks.endCheck();
+            // back off before trying again, the listing is retried without a budget
+            long backoff = RetryPolicy.getDefault().getBackoff(e.getCode(), failures.incrementAndGet());
+            tasks.add(this, System.currentTimeMillis() + backoff);
+            return;
         } catch (InterruptedException e) {
             // interrupted - stop execution
+            breaker.releaseProbe();
+            tasks.endCheck();
             return;
+        } catch (RuntimeException e) {
+            // e.g. no keys - the call never reached the bridge
+            breaker.releaseProbe();
+            tasks.endCheck();
+            throw e;
         }
-    }
 
-    private void processFiles(File[] files) {
-        List<Path> localPaths = getLocalPaths();
-
-        cleanDeletedFilesFromDB(files, localPaths);
-
-        for (File file : files) {
-            try {
-                Path localPath = getLocalPath(file.getName(), localPaths);
-                // process only files encrypted with the current key
-                if (file.isDecrypted()) {
-                    try {
-                        if (DB.contains(file)) {
-                            SyncFile syncFile = DB.get(file);
-                            boolean cloudChanged = cloudChanged(syncFile, file);
-                            if (localPath == null) {
-                                if (cloudChanged || syncFile.getState() == SyncState.FOR_DOWNLOAD
-                                        && syncFile.getLocalModifiedTime() == 0) {
-                                    addForDownload(file);
-                                } else if (syncFile.getState() == SyncState.DOWNLOAD_FAILED) {
-                                    if (syncFile.getLocalModifiedTime() == 0) {
-                                        DB.setDownloadFailed(file, localPath);
-                                    } else {
-                                        addForDownload(file);
-                                    }
-                                } else {
-                                    setForCloudDelete(file);
-                                }
-                            } else {
-                                boolean localChanged = localChanged(syncFile, localPath);
-                                if (cloudChanged && localChanged || syncFile.getState() == SyncState.FOR_DOWNLOAD) {
-                                    resolveConflict(file, localPath);
-                                } else if (cloudChanged) {
-                                    addForDownload(file, localPath);
-                                } else if (localChanged) {
-                                    addForUpload(file, localPath);
-                                } else {
-                                    // no change - do nothing
-                                }
-                            }
-                        } else {
-                            if (localPath == null) {
-                                if (file.isDirectory()) {
-                                    addForLocalCreateDir(file);
-                                } else {
-                                    addForDownload(file);
-                                }
-                            } else {
-                                resolveConflict(file, localPath);
-                            }
-                        }
-                    } catch (ParseException e) {
-                        logger.error("Cannot parse timestamp", e);
-                    }
-                }
+        failures.set(0);
 
-                if (localPath != null) {
-                    // Remove from the list of local file to avoid double processing
-                    localPaths.remove(localPath);
-                }
-            } catch (IOException e) {
-                logger.error("I/O error", e);
-            }
+        String bucketId = gooboxBucket.getId();
+        String fingerprint = StorjUtil.getFingerprint(files);
+        App.getInstance().getPollInterval().onCheck(fingerprint);
+
+        if (isUnchanged(bucketId, fingerprint)) {
+            logger.info("No changes since the last check - same listing and no local changes");
+        } else {
+            processFiles(CloudFile.of(files), fingerprint);
         }
+        tasks.endCheck();
 
-        // Process local files without cloud counterpart
-        for (Path path : localPaths) {
-            try {
-                if (DB.contains(path)) {
-                    SyncFile syncFile = DB.get(path);
-                    if (localChanged(syncFile, path)
-                            || syncFile.getState() == SyncState.FOR_UPLOAD && syncFile.getStorjCreatedTime() == 0) {
-                        addForUpload(path);
-                    } else if (syncFile.getState() == SyncState.UPLOAD_FAILED && syncFile.getStorjCreatedTime() == 0) {
-                        DB.setUploadFailed(path);
-                    } else {
-                        setForLocalDelete(path);
-                    }
-                } else if (!StorjUtil.isExcluded(path)) {
-                    if (Files.isDirectory(path)) {
-                        addForCloudCreateDir(path);
-                    } else {
-                        addForUpload(path);
-                    }
-                }
-            } catch (IOException e) {
-                logger.error("I/O error", e);
-            }
+        // remember the listing only if there is nothing left to do for it
+        DB.setListingFingerprint(bucketId, tasks.isIdle() ? fingerprint : null);
+        DB.commit();
+
+        if (tasks.isIdle()) {
+            setIdle();
         }
+
+        // Check again after the poll interval to avoid overloading the bridge.
+        // The file tasks are taken meanwhile, and finished tasks or local
+        // changes bring the check forward.
+        tasks.add(this, App.getInstance().getPollInterval().getNextCheck());
     }
 
-    private File getStorjFile(String name, File[] files) {
-        for (File file : files) {
-            if (DB.getName(file).toString().equals(name)) {
-                return file;
-            }
-        }
-        return null;
+    /**
+     * Checks if the cloud listing is the same as in the last check that left
+     * nothing to do, and there were no local changes since then.
+     */
+    private boolean isUnchanged(String bucketId, String fingerprint) {
+        return fingerprint.equals(DB.getListingFingerprint(bucketId))
+                && !App.getInstance().getFileWatcher().hasDirtyPaths()
+                && !App.getInstance().getLocalTree().isFullScanDue();
     }
 
-    private List<Path> getLocalPaths() {
-        Deque<Path> stack = new ArrayDeque<Path>();
-        List<Path> paths = new ArrayList<>();
+    private void processFiles(CloudFile[] files, String fingerprint) {
+        if (App.getInstance().getMergeMemoryBudget() > 0) {
+            processFilesSorted(files);
+            return;
+        }
 
-        stack.push(App.getInstance().getSyncDir());
+        // only the dirs with file events are read again, and the cloud
+        // digests are computed once per listing
+        LocalTree localTree = updateLocalTree();
+        Map<String, String> digests = DirDigests.combine(localTree.getDigests(), getCloudDigests(files, fingerprint));
+        Map<String, String> storedDigests = DB.getDirDigests();
 
-        while (!stack.isEmpty()) {
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(stack.pop())) {
-                for (Path path : stream) {
-                    if (Files.isDirectory(path)) {
-                        stack.push(path);
-                    }
-                    paths.add(path);
-                }
-            } catch (IOException e) {
-                logger.error("I/O error", e);
-            }
+        String rootDigest = digests.get(DirDigests.ROOT);
+        if (rootDigest != null && rootDigest.equals(storedDigests.get(DirDigests.ROOT))) {
+            // the stored digests are the same, and the caller records the listing fingerprint
+            logger.info("No changes since the last check - same digest of the sync dir");
+            return;
         }
 
-        return paths;
-    }
+        List<LocalFile> localFiles = localTree.getFiles();
 
-    private Path getLocalPath(String name, List<Path> localPaths) {
-        for (Path path : localPaths) {
-            if (StorjUtil.getStorjPath(path).equals(Paths.get(name))) {
-                return path;
+        Set<String> unchangedDirs = new HashSet<>();
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            if (entry.getValue().equals(storedDigests.get(entry.getKey()))) {
+                unchangedDirs.add(entry.getKey());
             }
         }
-        return null;
-    }
 
-    private long getCloudTimestamp(File file) throws ParseException {
-        return StorjUtil.getTime(file.getCreated());
-    }
+        SyncSnapshot snapshot = DB.snapshot();
+        SyncIndex index = new SyncIndex(files, localFiles);
+        SyncPlanner planner = new SyncPlanner(dirtyPaths, unchangedDirs);
 
-    private long getLocalTimestamp(Path path) throws IOException {
-        return Files.getLastModifiedTime(path).toMillis();
-    }
+        // read the files with a new timestamp in parallel, so planning does no I/O
+        ContentHashes.computeAll(planner.getFilesToHash(index, snapshot));
+        SyncPlan plan = planner.plan(index, snapshot);
 
-    private boolean cloudChanged(SyncFile syncFile, File file) throws ParseException {
-        return !file.isDirectory() && syncFile.getStorjCreatedTime() != getCloudTimestamp(file);
-    }
+        if (plan.isSynchronizing()) {
+            setSynchronizing();
+        }
 
-    private boolean localChanged(SyncFile syncFile, Path path) throws IOException {
-        return !Files.isDirectory(path) && syncFile.getLocalModifiedTime() != getLocalTimestamp(path);
-    }
+        SyncApplier applier = new SyncApplier(gooboxBucket, tasks, snapshot);
+        applier.apply(plan.getActions());
+        applier.flush();
 
-    private void resolveConflict(File file, Path path) throws IOException, ParseException {
-        // check if local and cloud file are same
-        // TODO #29 check HMAC instead of size
-        if (file.isDirectory() && Files.isDirectory(path)) {
-            DB.setSynced(file, path);
-        } else if (file.getSize() == Files.size(path)) {
-            DB.setSynced(file, path);
-        } else if (getCloudTimestamp(file) < getLocalTimestamp(path)) {
-            addForUpload(file, path);
-        } else {
-            addForDownload(file, path);
-        }
+        digests.keySet().removeAll(plan.getUncleanDirs());
+        DB.setDirDigests(digests, storedDigests);
     }
 
-    private void addForDownload(File file) {
-        DB.addForDownload(file);
-        setSynchronizing();
-        tasks.add(new DownloadFileTask(gooboxBucket, file));
-    }
+    /**
+     * Same as {@link #processFiles(CloudFile[], String)}, but joins the cloud files, the
+     * local files and the DB records with a {@link SortMerge} within the
+     * configured memory budget. The names are planned one by one and the
+     * actions are applied in batches.
+     * <p>
+     * The dir digests are not used here, because the local tree they are
+     * computed from is not kept. The stored digests are cleared, so a later
+     * check in memory does not skip dirs changed by this one.
+     * </p>
+     */
+    private void processFilesSorted(CloudFile[] files) {
+        final SyncSnapshot snapshot = new SyncSnapshot();
+        final SyncApplier applier = new SyncApplier(gooboxBucket, tasks, snapshot);
+
+        DB.setDirDigests(Collections.<String, String> emptyMap(), DB.getDirDigests());
+
+        // the whole sync dir is walked, so the file events are not needed
+        App.getInstance().getFileWatcher().drainDirtyPaths();
+        dirtyPaths = null;
+
+        final SyncPlanner planner = new SyncPlanner(null, Collections.<String> emptySet());
+
+        try (SortMerge merge = new SortMerge(App.getInstance().getMergeMemoryBudget())) {
+            merge.addCloudFiles(files);
+            merge.addLocalFiles(App.getInstance().getSyncDir());
+            merge.addSyncFiles();
+
+            final int[] count = { 0 };
+            merge.join((name, cloudFiles, localFile, syncFile) -> {
+                if (syncFile != null) {
+                    snapshot.add(syncFile);
+                }
 
-    private void addForDownload(File file, Path path) throws IOException {
-        DB.addForDownload(file, path);
-        setSynchronizing();
-        tasks.add(new DownloadFileTask(gooboxBucket, file));
-    }
+                if (planner.needsHash(cloudFiles.isEmpty() ? null : cloudFiles.get(0), localFile, syncFile)) {
+                    ContentHashes.get(localFile);
+                }
 
-    private void addForUpload(Path path) throws IOException {
-        DB.addForUpload(path);
-        setSynchronizing();
-        tasks.add(new UploadFileTask(gooboxBucket, path));
-    }
+                List<SyncAction> actions = planner.planName(name, cloudFiles, localFile, syncFile);
+                for (SyncAction action : actions) {
+                    if (action.getType().isSynchronizing()) {
+                        setSynchronizing();
+                    }
+                }
+                applier.apply(actions);
 
-    private void addForUpload(File file, Path path) throws IOException {
-        DB.addForUpload(file, path);
-        setSynchronizing();
-        tasks.add(new UploadFileTask(gooboxBucket, path));
-    }
+                if (++count[0] % MERGE_BATCH_SIZE == 0) {
+                    applier.flush();
+                    snapshot.clear();
+                }
+            });
 
-    private void setForCloudDelete(File file) {
-        DB.setForCloudDelete(file);
-        setSynchronizing();
-        tasks.add(new DeleteCloudFileTask(gooboxBucket, file));
+            applier.flush();
+        } catch (IOException e) {
+            logger.error("I/O error", e);
+        }
     }
 
-    private void setForLocalDelete(Path path) throws IOException {
-        DB.setForLocalDelete(path);
-        tasks.add(new DeleteLocalFileTask(path));
-    }
+    private LocalTree updateLocalTree() {
+        DirtyPaths changes = App.getInstance().getFileWatcher().drainDirtyPaths();
+        LocalTree localTree = App.getInstance().getLocalTree();
 
-    private void addForLocalCreateDir(File file) throws IOException {
-        DB.addForLocalCreateDir(file);
-        tasks.add(new CreateLocalDirTask(file));
-    }
+        dirtyPaths = localTree.update(changes) ? null : changes;
 
-    private void addForCloudCreateDir(Path path) throws IOException {
-        DB.addForCloudCreateDir(path);
-        setSynchronizing();
-        tasks.add(new CreateCloudDirTask(gooboxBucket, path));
+        return localTree;
     }
 
-    private void cleanDeletedFilesFromDB(File[] files, List<Path> localPaths) {
-        for (SyncFile syncFile : DB.all()) {
-            String fileName = syncFile.getName();
-            File storjFile = getStorjFile(fileName, files);
-            Path localPath = getLocalPath(fileName, localPaths);
-            if (storjFile == null && localPath == null) {
-                DB.remove(fileName);
-            }
+    private static synchronized Map<String, String> getCloudDigests(CloudFile[] files, String fingerprint) {
+        if (!fingerprint.equals(cloudFingerprint)) {
+            cloudDigests = DirDigests.cloud(files);
+            cloudFingerprint = fingerprint;
         }
+        return cloudDigests;
     }
 
     private void setSynchronizing() {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offline detection for the bridge. After {@link #FAILURE_THRESHOLD} calls in
+ * a row failed with a temporary error the breaker opens, and the cloud tasks
+ * and retries wait instead of failing one by one. Once the open time is over
+ * a single probe call is let through. If it succeeds the breaker closes and
+ * the waiting work resumes, otherwise it opens again for twice as long, up
+ * to {@link #MAX_OPEN_TIME}.
+ * <p>
+ * Any reply of the bridge, even an error that is not temporary, counts as a
+ * success, since it shows that the bridge can be reached.
+ * </p>
+ * <p>
+ * A probe that ends without a result, e.g. because the caller was
+ * interrupted, is {@link #releaseProbe() released}. A probe that gets no
+ * result within {@link #PROBE_TIMEOUT} is given up, so the breaker never
+ * stays half open.
+ * </p>
+ */
+public class CircuitBreaker implements CircuitBreakerMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public static final int FAILURE_THRESHOLD = 5;
+    public static final long MIN_OPEN_TIME = TimeUnit.SECONDS.toMillis(15);
+    public static final long MAX_OPEN_TIME = TimeUnit.MINUTES.toMillis(5);
+    // longer than the stall timeout of a listing, which fails a hung probe first
+    public static final long PROBE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openCount;
+    private long openTime = MIN_OPEN_TIME;
+    private long openUntil;
+    private long probeUntil;
+    private CompletableFuture<Void> closed = CompletableFuture.completedFuture(null);
+
+    /**
+     * Publishes the breaker as a platform MXBean.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("io.goobox.sync.storj:type=CircuitBreaker"));
+        } catch (JMException e) {
+            logger.warn("Cannot register the circuit breaker", e);
+        }
+    }
+
+    /**
+     * Adds an action run every time the breaker closes after being open.
+     */
+    public void addCloseListener(Runnable listener) {
+        closeListeners.add(listener);
+    }
+
+    public synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Returns a future completed when the breaker is closed.
+     */
+    public synchronized CompletableFuture<Void> whenClosed() {
+        return closed;
+    }
+
+    /**
+     * Checks if a call may be made now. While open, this lets through a
+     * single probe once the open time is over.
+     */
+    public boolean tryProbe() {
+        return tryProbe(now());
+    }
+
+    synchronized boolean tryProbe(long now) {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeUntil = now + PROBE_TIMEOUT;
+            logger.info("Probing the bridge");
+            return true;
+        default:
+            if (now < probeUntil) {
+                // the probe is still in flight
+                return false;
+            }
+            probeUntil = now + PROBE_TIMEOUT;
+            logger.warn("No result of the last probe. Probing the bridge again.");
+            return true;
+        }
+    }
+
+    /**
+     * Gives back a probe let through by {@link #tryProbe()} that ended
+     * without a result, so the next call may probe right away.
+     */
+    public void releaseProbe() {
+        releaseProbe(now());
+    }
+
+    synchronized void releaseProbe(long now) {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntil = now;
+        }
+    }
+
+    /**
+     * Called with the outcome of every libstorj call that reached the bridge
+     * or failed trying.
+     */
+    public void onResult(int code) {
+        onResult(code, now());
+    }
+
+    void onResult(int code, long now) {
+        if (!StorjUtil.isTemporaryError(code)) {
+            onSuccess();
+            return;
+        }
+
+        synchronized (this) {
+            failures++;
+            if (state == State.HALF_OPEN) {
+                openTime = Math.min(openTime * 2, MAX_OPEN_TIME);
+                open(now);
+                logger.warn("Bridge still unreachable. Next probe in {} seconds.",
+                        TimeUnit.MILLISECONDS.toSeconds(openTime));
+            } else if (state == State.CLOSED && failures >= FAILURE_THRESHOLD) {
+                closed = new CompletableFuture<>();
+                open(now);
+                logger.warn("Bridge unreachable after {} temporary errors. Pausing cloud operations for {} seconds.",
+                        failures, TimeUnit.MILLISECONDS.toSeconds(openTime));
+            }
+        }
+    }
+
+    public void onSuccess() {
+        CompletableFuture<Void> resumed;
+        synchronized (this) {
+            failures = 0;
+            if (state == State.CLOSED) {
+                return;
+            }
+            state = State.CLOSED;
+            openTime = MIN_OPEN_TIME;
+            resumed = closed;
+        }
+
+        logger.info("Bridge reachable again. Resuming cloud operations.");
+        // outside the lock, the waiting stages run right away
+        for (Runnable listener : closeListeners) {
+            listener.run();
+        }
+        resumed.complete(null);
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openUntil = now + openTime;
+        openCount++;
+    }
+
+    @Override
+    public synchronized String getState() {
+        return state.name();
+    }
+
+    @Override
+    public synchronized int getConsecutiveFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    @Override
+    public long getRemainingOpenTime() {
+        return getRemainingOpenTime(now());
+    }
+
+    synchronized long getRemainingOpenTime(long now) {
+        return (state == State.OPEN) ? Math.max(0, openUntil - now) : 0;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+}
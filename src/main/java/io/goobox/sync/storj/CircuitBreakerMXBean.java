@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+/**
+ * Metrics of a {@link CircuitBreaker}, published as a platform MXBean.
+ */
+public interface CircuitBreakerMXBean {
+
+    /**
+     * Returns <code>CLOSED</code>, <code>OPEN</code> or
+     * <code>HALF_OPEN</code>.
+     */
+    String getState();
+
+    int getConsecutiveFailures();
+
+    /**
+     * Returns the number of times the breaker opened since startup.
+     */
+    long getOpenCount();
+
+    /**
+     * Returns the time in milliseconds until the next probe may be made.
+     */
+    long getRemainingOpenTime();
+
+}
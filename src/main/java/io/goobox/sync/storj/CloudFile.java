@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.text.ParseException;
+
+import io.storj.libstorj.File;
+
+/**
+ * A file from the cloud listing with the values needed by a sync check
+ * computed once: the name used in the sync DB and the created time.
+ */
+public class CloudFile {
+
+    private final File file;
+    private final SyncKey key;
+    private final long createdTime;
+    private final boolean createdValid;
+
+    public CloudFile(File file) {
+        this.file = file;
+        this.key = SyncKey.of(file);
+
+        long time = 0;
+        boolean valid = true;
+        try {
+            time = StorjUtil.getTime(file.getCreated());
+        } catch (ParseException e) {
+            valid = false;
+        }
+        this.createdTime = time;
+        this.createdValid = valid;
+    }
+
+    public CloudFile(File file, long createdTime) {
+        this.file = file;
+        this.key = SyncKey.of(file);
+        this.createdTime = createdTime;
+        this.createdValid = true;
+    }
+
+    public static CloudFile[] of(File[] files) {
+        CloudFile[] result = new CloudFile[files.length];
+        for (int i = 0; i < files.length; i++) {
+            result[i] = new CloudFile(files[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the file as received from libstorj.
+     */
+    public File getStorjFile() {
+        return file;
+    }
+
+    /**
+     * Returns the name used in the sync DB, i.e. the Storj name without
+     * trailing slash.
+     */
+    public String getName() {
+        return key.getName();
+    }
+
+    public String getId() {
+        return file.getId();
+    }
+
+    /**
+     * Returns the created time in milliseconds since the epoch.
+     *
+     * @throws ParseException
+     *             if libstorj returned a timestamp in an unknown format
+     */
+    public long getCreatedTime() throws ParseException {
+        if (!createdValid) {
+            throw new ParseException("Unparseable date: \"" + file.getCreated() + "\"", 0);
+        }
+        return createdTime;
+    }
+
+    public long getSize() {
+        return file.getSize();
+    }
+
+    public boolean isDirectory() {
+        return key.isDirectory();
+    }
+
+    public boolean isDecrypted() {
+        return file.isDecrypted();
+    }
+
+    public String getHMAC() {
+        return file.getHMAC();
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of transfers of a {@link Workload} that may run at the same time,
+ * adapted with additive increase and multiplicative decrease.
+ * <p>
+ * The completed transfers are measured in windows of as many transfers as the
+ * current limit. After a window without errors that had at least the
+ * throughput of the previous window, the limit grows by one. A temporary
+ * error halves the limit, at most once per {@link #BACKOFF_INTERVAL}, since
+ * the transfers failing together usually failed for the same reason.
+ * </p>
+ */
+public class ConcurrencyLimit implements ConcurrencyLimitMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimit.class);
+
+    public static final long BACKOFF_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    // throughput drop still taken as no worse than the previous window
+    private static final double TOLERANCE = 0.1;
+
+    private final Workload workload;
+    private final int maxLimit;
+
+    private int limit;
+    private boolean decreased;
+    private long lastDecrease;
+
+    private long windowStart;
+    private int windowTransfers;
+    private long windowBytes;
+    private int windowErrors;
+    private double lastThroughput;
+
+    /**
+     * @param maxLimit
+     *            the concurrency of the workload; the limit starts at
+     *            half of it
+     */
+    public ConcurrencyLimit(Workload workload, int maxLimit) {
+        this(workload, maxLimit, now());
+    }
+
+    ConcurrencyLimit(Workload workload, int maxLimit, long now) {
+        this.workload = workload;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = (this.maxLimit + 1) / 2;
+        this.windowStart = now;
+    }
+
+    /**
+     * Publishes the limit as a platform MXBean.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("io.goobox.sync.storj:type=ConcurrencyLimit,workload=" + workload.getId()));
+        } catch (JMException e) {
+            logger.warn("Cannot register the {} concurrency limit", workload.getId(), e);
+        }
+    }
+
+    public void onSuccess(long bytes) {
+        onSuccess(bytes, now());
+    }
+
+    synchronized void onSuccess(long bytes, long now) {
+        windowTransfers++;
+        windowBytes += bytes;
+        if (windowTransfers < limit) {
+            return;
+        }
+
+        double throughput = (double) windowBytes / Math.max(1, now - windowStart);
+        if (windowErrors == 0 && throughput >= lastThroughput * (1 - TOLERANCE) && limit < maxLimit) {
+            limit++;
+            logger.debug("Raised the {} concurrency to {}", workload.getId(), limit);
+        }
+        lastThroughput = throughput;
+        startWindow(now);
+    }
+
+    /**
+     * Called when a transfer failed with an error for which
+     * {@link StorjUtil#isTemporaryError(int)} is <code>true</code>.
+     */
+    public void onTemporaryError() {
+        onTemporaryError(now());
+    }
+
+    synchronized void onTemporaryError(long now) {
+        windowErrors++;
+        if (decreased && now - lastDecrease < BACKOFF_INTERVAL) {
+            return;
+        }
+        decreased = true;
+        lastDecrease = now;
+        if (limit > 1) {
+            limit = Math.max(1, limit / 2);
+            logger.info("Lowered the {} concurrency to {}", workload.getId(), limit);
+        }
+        // compare the next window with the reduced concurrency only
+        lastThroughput = 0;
+        startWindow(now);
+    }
+
+    /**
+     * Called when the bridge can be reached again after it was offline. The
+     * limit starts over from a single transfer, so the queued transfers come
+     * back gradually.
+     */
+    public void onResume() {
+        onResume(now());
+    }
+
+    synchronized void onResume(long now) {
+        limit = 1;
+        decreased = false;
+        lastThroughput = 0;
+        startWindow(now);
+    }
+
+    @Override
+    public String getWorkload() {
+        return workload.getId();
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public synchronized double getThroughput() {
+        // bytes per millisecond to bytes per second
+        return lastThroughput * 1000;
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        windowTransfers = 0;
+        windowBytes = 0;
+        windowErrors = 0;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+}
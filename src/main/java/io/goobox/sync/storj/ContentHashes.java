@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the content hashes of local files. A hash is kept per path together
+ * with the size, modification time and file key it was computed for, so it is
+ * reused until the file changes.
+ * <p>
+ * Files are read in chunks into a direct buffer kept per thread. They are not
+ * memory-mapped, because a mapped region stays until it is garbage collected
+ * and keeps the file locked on Windows. Several files are hashed in parallel
+ * with {@link #computeAll(Collection)}.
+ * </p>
+ */
+public class ContentHashes {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContentHashes.class);
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_ENTRIES = 100000;
+
+    // hashing is I/O bound, but more threads than disks do not help much
+    private static final ForkJoinPool hashPool = new ForkJoinPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+    private static final Map<Path, Entry> cache = new LinkedHashMap<Path, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, ContentHashes.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the cached hash of the file, without reading it.
+     *
+     * @return the hash, or <code>null</code> if the file was not hashed since
+     *         its last change
+     */
+    public static String getCached(LocalFile file) {
+        if (file.isDirectory()) {
+            return null;
+        }
+        synchronized (cache) {
+            Entry entry = cache.get(file.getPath());
+            return (entry != null && entry.matches(file)) ? entry.hash : null;
+        }
+    }
+
+    /**
+     * Returns the hash of the file, reading it if it is not cached.
+     *
+     * @return the hash, or <code>null</code> for a directory or if the file
+     *         cannot be read
+     */
+    public static String get(LocalFile file) {
+        if (file.isDirectory()) {
+            return null;
+        }
+
+        String hash = getCached(file);
+        if (hash != null) {
+            return hash;
+        }
+        return compute(file, file.getPath());
+    }
+
+    public static String get(Path path) throws IOException {
+        return get(LocalFile.of(path));
+    }
+
+    /**
+     * Hashes the file on the hash pool, so the caller does not wait for the
+     * read. Completes with <code>null</code> if the file cannot be read.
+     */
+    public static CompletableFuture<String> getAsync(final Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return get(path);
+            } catch (IOException e) {
+                logger.debug("Cannot hash {}", path, e);
+                return null;
+            }
+        }, hashPool);
+    }
+
+    /**
+     * Returns the executor of the hash pool, for hashes that should not hold
+     * up the threads of the tasks.
+     */
+    public static Executor getExecutor() {
+        return hashPool;
+    }
+
+    /**
+     * Hashes a copy of the file and caches the hash for the file, if the file
+     * still has the given attributes afterwards.
+     *
+     * @return the hash, or <code>null</code> if it cannot be computed
+     */
+    public static String getFromCopy(LocalFile file, Path copy) {
+        return compute(file, copy);
+    }
+
+    /**
+     * Computes the hash of the source, which has the same content as the
+     * file, and caches it for the file.
+     */
+    private static String compute(LocalFile file, Path source) {
+        String hash;
+        try {
+            hash = compute(source, file.getSize());
+        } catch (IOException e) {
+            // deleted or locked
+            logger.debug("Cannot hash {}", source, e);
+            return null;
+        }
+
+        LocalFile after = readAttributes(file.getPath());
+        if (after == null || !new Entry(file, hash).matches(after)) {
+            // changed while reading
+            return null;
+        }
+
+        synchronized (cache) {
+            cache.put(file.getPath(), new Entry(file, hash));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the files that are not cached yet in parallel.
+     */
+    public static void computeAll(Collection<LocalFile> files) {
+        final List<LocalFile> missing = new ArrayList<>();
+        for (LocalFile file : files) {
+            if (!file.isDirectory() && getCached(file) == null) {
+                missing.add(file);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        logger.debug("Hashing {} files", missing.size());
+        hashPool.invoke(ForkJoinTask.adapt(() -> {
+            missing.parallelStream().forEach(ContentHashes::get);
+        }));
+    }
+
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static String compute(Path path, long size) throws IOException {
+        MessageDigest md = newDigest();
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long remaining = size;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int) remaining);
+                }
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    // shorter than expected - changed while reading
+                    break;
+                }
+                remaining -= read;
+                buffer.flip();
+                md.update(buffer);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static LocalFile readAttributes(Path path) {
+        try {
+            return LocalFile.of(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+
+        final long size;
+        final long lastModified;
+        final Object fileKey;
+        final String hash;
+
+        Entry(LocalFile file, String hash) {
+            this.size = file.getSize();
+            this.lastModified = file.getLastModified();
+            this.fileKey = file.getFileKey();
+            this.hash = hash;
+        }
+
+        boolean matches(LocalFile file) {
+            // the file key is not known for files read back from a sort run
+            return size == file.getSize() && lastModified == file.getLastModified()
+                    && (fileKey == null || file.getFileKey() == null || Objects.equals(fileKey, file.getFileKey()));
+        }
+
+    }
+
+}
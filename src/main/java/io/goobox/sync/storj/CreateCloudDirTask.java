@@ -19,20 +19,16 @@ package io.goobox.sync.storj;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
 import io.storj.libstorj.Bucket;
-import io.storj.libstorj.File;
-import io.storj.libstorj.GetFileCallback;
-import io.storj.libstorj.GetFileIdCallback;
 import io.storj.libstorj.Storj;
-import io.storj.libstorj.UploadFileCallback;
 
-public class CreateCloudDirTask implements Runnable {
+public class CreateCloudDirTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(CreateCloudDirTask.class);
 
@@ -45,175 +41,99 @@ public class CreateCloudDirTask implements Runnable {
     }
 
     @Override
-    public void run() {
-        try {
-            String dirName = StorjUtil.getStorjName(path);
-            String dirId = getDirId(dirName);
-            if (dirId != null) {
-                setSynced(dirId);
-            } else {
-                final Path tmp = createTempDirFile();
-
-                logger.info("Creating cloud directory {}", dirName);
-
-                final boolean repeat[] = { true };
-
-                while (repeat[0]) {
-                    final CountDownLatch latch = new CountDownLatch(1);
-
-                    App.getInstance().getStorj().uploadFile(bucket, dirName, tmp.toString(), new UploadFileCallback() {
-                        @Override
-                        public void onProgress(String filePath, double progress, long uploadedBytes, long totalBytes) {
-                            String progressMessage = String.format("  %3d%% %15d/%d bytes",
-                                    (int) (progress * 100), uploadedBytes, totalBytes);
-                            logger.info(progressMessage);
-                        }
-
-                        @Override
-                        public void onComplete(final String filePath, final File file) {
-                            try {
-                                DB.setSynced(file, path);
-                                DB.commit();
-
-                                deleteTempDirFile(tmp);
-                            } catch (IOException e) {
-                                logger.error("I/O error", e);
-                            }
-
-                            repeat[0] = false;
-                            latch.countDown();
-                        }
-
-                        @Override
-                        public void onError(String filePath, int code, String message) {
-                            if (StorjUtil.isTemporaryError(code)) {
-                                logger.error(
-                                        "Creating cloud directory failed due to temporary error: {} ({}). Trying again.",
-                                        message, code);
-                            } else if (code == Storj.STORJ_BRIDGE_BUCKET_FILE_EXISTS) {
-                                // ignore it - this happens sometimes after farmer request error
-                            } else {
-                                logger.error("Creating cloud directory failed: {} ({})", message, code);
-
-                                try {
-                                    DB.setUploadFailed(path);
-                                    DB.commit();
-
-                                    deleteTempDirFile(tmp);
-                                } catch (IOException e) {
-                                    logger.error("I/O error", e);
-                                }
-
-                                repeat[0] = false;
-                            }
-
-                            latch.countDown();
-                        }
-                    });
-
-                    latch.await();
-
-                    if (repeat[0]) {
-                        // error - wait 3 seconds before trying again
-                        Thread.sleep(3000);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            logger.error("Failed creating temp file", e);
-        } catch (InterruptedException e) {
-            // interrupted - stop execution
-            return;
-        }
+    public String getName() {
+        return DB.getName(path);
     }
 
-    private String getDirId(final String dirName) throws InterruptedException {
-        final String result[] = { null };
-        final boolean repeat[] = { true };
-
-        while (repeat[0]) {
-            final CountDownLatch latch = new CountDownLatch(1);
+    @Override
+    public Workload getWorkload() {
+        return Workload.CLOUD_METADATA;
+    }
 
-            App.getInstance().getStorj().getFileId(bucket, dirName, new GetFileIdCallback() {
-                @Override
-                public void onFileIdReceived(String fileName, String fileId) {
-                    result[0] = fileId;
-                    repeat[0] = false;
-                    latch.countDown();
-                }
+    @Override
+    public CompletableFuture<Void> start() {
+        final String dirName = SyncKey.of(path, true).getStorjName();
+        final StorjClient client = App.getInstance().getStorjClient();
 
-                @Override
-                public void onError(String fileName, int code, String message) {
-                    if (code == Storj.HTTP_NOT_FOUND) {
-                        // no such dir
-                        repeat[0] = false;
-                    } else if (StorjUtil.isTemporaryError(code)) {
-                        logger.error(
-                                "Error checking if directory with name {} exists due to temporary error: {} ({}). Trying again.",
-                                dirName, message, code);
-                    } else {
-                        logger.error(
-                                "Error checking if directory with name {} exists: {} ({})",
-                                dirName, message, code);
-                        repeat[0] = false;
-                    }
-                    latch.countDown();
-                }
-            });
+        return getDirId(client, dirName).thenCompose(dirId -> {
+            if (dirId != null) {
+                return setSynced(client, dirId);
+            }
+            return createDir(client, dirName);
+        });
+    }
 
-            latch.await();
+    private CompletableFuture<String> getDirId(StorjClient client, final String dirName) {
+        return client.retry(RetryPolicy.Operation.GET_FILE_ID, () -> client.getFileId(bucket, dirName), e -> {
+            logger.error(
+                    "Error checking if directory with name {} exists due to temporary error: {} ({}). Trying again.",
+                    dirName, e.getMessage(), e.getCode());
+        }).exceptionally(e -> {
+            logger.error("Error checking if directory with name {} exists: {}", dirName,
+                    StorjClient.getErrorMessage(e));
+            return null;
+        });
+    }
 
-            if (repeat[0]) {
-                // error - wait 3 seconds before trying again
-                Thread.sleep(3000);
+    private CompletableFuture<Void> setSynced(StorjClient client, final String dirId) {
+        return client.retry(RetryPolicy.Operation.GET_FILE, () -> client.getFile(bucket, dirId), e -> {
+            logger.error("Error getting directory metadata for {} due to temporary error: {} ({}). Trying again.",
+                    dirId, e.getMessage(), e.getCode());
+        }).handle((dir, e) -> {
+            if (e != null) {
+                logger.error("Error getting directory metadata for {}: {}", dirId, StorjClient.getErrorMessage(e));
+                return null;
             }
-        }
 
-        return result[0];
+            try {
+                DB.setSynced(dir, path);
+                DB.commit();
+            } catch (IOException e1) {
+                logger.error("I/O error", e1);
+            }
+            return null;
+        });
     }
 
-    private void setSynced(String dirId) throws InterruptedException {
-        final boolean repeat[] = { true };
-
-        while (repeat[0]) {
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            App.getInstance().getStorj().getFile(bucket, dirId, new GetFileCallback() {
-                @Override
-                public void onFileReceived(File dir) {
-                    try {
-                        DB.setSynced(dir, path);
-                        DB.commit();
-                    } catch (IOException e) {
-                        logger.error("I/O error", e);
-                    }
-                    repeat[0] = false;
-                    latch.countDown();
-                }
+    private CompletableFuture<Void> createDir(StorjClient client, String dirName) {
+        final Path tmp;
+        try {
+            tmp = createTempDirFile();
+        } catch (IOException e) {
+            logger.error("Failed creating temp file", e);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        logger.info("Creating cloud directory {}", dirName);
 
-                @Override
-                public void onError(String fileId, int code, String message) {
-                    if (StorjUtil.isTemporaryError(code)) {
-                        logger.error(
-                                "Error getting directory metadata for {} due to temporary error: {} ({}). Trying again.",
-                                dirId, message, code);
-                    } else {
-                        logger.error(
-                                "Error getting directory metadata for {}: {} ({})",
-                                dirId, message, code);
-                        repeat[0] = false;
-                    }
-                    latch.countDown();
+        return client.retry(RetryPolicy.Operation.CREATE_DIR,
+                () -> client.uploadFile(bucket, dirName, tmp.toString(), this::logProgress), e -> {
+            if (e.getCode() != Storj.STORJ_BRIDGE_BUCKET_FILE_EXISTS) {
+                logger.error("Creating cloud directory failed due to temporary error: {} ({}). Trying again.",
+                        e.getMessage(), e.getCode());
+            }
+        }).handle((file, e) -> {
+            try {
+                if (e == null) {
+                    DB.setSynced(file, path);
+                } else {
+                    logger.error("Creating cloud directory failed: {}", StorjClient.getErrorMessage(e));
+                    DB.setUploadFailed(path);
                 }
-            });
+                DB.commit();
+            } catch (IOException e1) {
+                logger.error("I/O error", e1);
+            }
 
-            latch.await();
+            deleteTempDirFile(tmp);
+            return null;
+        });
+    }
 
-            if (repeat[0]) {
-                // error - wait 3 seconds before trying again
-                Thread.sleep(3000);
-            }
-        }
+    private void logProgress(double progress, long uploadedBytes, long totalBytes) {
+        String progressMessage = String.format("  %3d%% %15d/%d bytes",
+                (int) (progress * 100), uploadedBytes, totalBytes);
+        logger.info(progressMessage);
     }
 
     private Path createTempDirFile() throws IOException {
@@ -18,6 +18,7 @@ package io.goobox.sync.storj;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,7 +26,7 @@ import org.slf4j.LoggerFactory;
 import io.goobox.sync.storj.db.DB;
 import io.storj.libstorj.File;
 
-public class CreateLocalDirTask implements Runnable {
+public class CreateLocalDirTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(CreateLocalDirTask.class);
 
@@ -35,6 +36,23 @@ public class CreateLocalDirTask implements Runnable {
         this.storjDir = storjDir;
     }
 
+    @Override
+    public String getName() {
+        return DB.getName(storjDir);
+    }
+
+    @Override
+    public Workload getWorkload() {
+        return Workload.LOCAL_FS;
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        // local file operations are quick, so run them in place
+        run();
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public void run() {
         logger.info("Creating local directory {}", storjDir.getName());
@@ -16,17 +16,16 @@
  */
 package io.goobox.sync.storj;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
 import io.storj.libstorj.Bucket;
-import io.storj.libstorj.DeleteFileCallback;
 import io.storj.libstorj.File;
 
-public class DeleteCloudFileTask implements Runnable {
+public class DeleteCloudFileTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(DeleteCloudFileTask.class);
 
@@ -39,33 +38,34 @@ public class DeleteCloudFileTask implements Runnable {
     }
 
     @Override
-    public void run() {
+    public String getName() {
+        return DB.getName(file);
+    }
+
+    @Override
+    public Workload getWorkload() {
+        return Workload.CLOUD_METADATA;
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
         logger.info("Deleting cloud {}", file.getName());
 
-        final CountDownLatch latch = new CountDownLatch(1);
+        final StorjClient client = App.getInstance().getStorjClient();
 
-        App.getInstance().getStorj().deleteFile(bucket, file, new DeleteFileCallback() {
-            @Override
-            public void onFileDeleted(String fileId) {
+        return client.retry(RetryPolicy.Operation.DELETE_FILE, () -> client.deleteFile(bucket, file), e -> {
+            logger.error("Failed deleting on cloud due to temporary error: {} ({}). Trying again.",
+                    e.getMessage(), e.getCode());
+        }).handle((result, e) -> {
+            if (e == null) {
                 logger.info("Cloud deletion successful");
                 DB.remove(file);
                 DB.commit();
-                latch.countDown();
-            }
-
-            @Override
-            public void onError(String fileId, int code, String message) {
-                logger.error("Failed deleting on cloud: {} ({})", message, code);
-                latch.countDown();
+            } else {
+                logger.error("Failed deleting on cloud: {}", StorjClient.getErrorMessage(e));
             }
+            return null;
         });
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            // interrupted - stop execution
-            return;
-        }
     }
 
 }
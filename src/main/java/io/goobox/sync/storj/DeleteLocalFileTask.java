@@ -20,13 +20,14 @@ import java.io.IOException;
 import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
 
-public class DeleteLocalFileTask implements Runnable {
+public class DeleteLocalFileTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(DeleteLocalFileTask.class);
 
@@ -36,9 +37,26 @@ public class DeleteLocalFileTask implements Runnable {
         this.path = path;
     }
 
+    @Override
+    public String getName() {
+        return DB.getName(path);
+    }
+
+    @Override
+    public Workload getWorkload() {
+        return Workload.LOCAL_FS;
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        // local file operations are quick, so run them in place
+        run();
+        return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public void run() {
-        logger.info("Deleting local {}", StorjUtil.getStorjName(path));
+        logger.info("Deleting local {}", DB.getName(path));
 
         try {
             Files.deleteIfExists(path);
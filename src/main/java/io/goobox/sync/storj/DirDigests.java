@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Merkle digests of directory subtrees, keyed by the directory name used in
+ * the sync DB. The sync dir itself has the empty name. The digest of a
+ * directory covers its entries and the digests of its subdirectories, so it
+ * changes whenever anything in the subtree changes.
+ */
+public class DirDigests {
+
+    public static final String ROOT = "";
+
+    /**
+     * Returns the digests of all directories in the cloud listing, including
+     * directories that have no entry of their own.
+     */
+    public static Map<String, String> cloud(CloudFile[] files) {
+        Map<String, List<String>> entries = new HashMap<>();
+        entries.put(ROOT, new ArrayList<String>());
+
+        for (CloudFile file : files) {
+            String name = file.getName();
+            String parent = getParent(name);
+            addDir(entries, parent);
+            entries.get(parent).add(new StringBuilder("f\0")
+                    .append(name).append('\0')
+                    .append(file.getId()).append('\0')
+                    .append(file.getStorjFile().getCreated()).append('\0')
+                    .append(file.getSize()).append('\0')
+                    .append(file.isDecrypted())
+                    .toString());
+        }
+
+        return digest(entries);
+    }
+
+    /**
+     * Returns the digest of a directory from the digest entries of its local
+     * files.
+     */
+    public static String local(List<LocalFile> files, Map<String, String> subdirDigests) {
+        List<String> entries = new ArrayList<>(files.size());
+        for (LocalFile file : files) {
+            if (file.isDirectory()) {
+                entries.add("d\0" + file.getName() + "\0" + subdirDigests.get(file.getName()));
+            } else {
+                entries.add("f\0" + file.getName() + "\0" + file.getSize() + "\0" + file.getLastModified());
+            }
+        }
+        return digest(entries);
+    }
+
+    /**
+     * Combines the local and the cloud digests of the directories that exist
+     * on both sides.
+     */
+    public static Map<String, String> combine(Map<String, String> local, Map<String, String> cloud) {
+        Map<String, String> result = new HashMap<>();
+        for (Map.Entry<String, String> entry : local.entrySet()) {
+            String cloudDigest = cloud.get(entry.getKey());
+            if (cloudDigest != null) {
+                result.put(entry.getKey(), digest(Collections.singletonList(entry.getValue() + "\0" + cloudDigest)));
+            }
+        }
+        return result;
+    }
+
+    public static String getParent(String name) {
+        int i = name.lastIndexOf('/');
+        return (i < 0) ? ROOT : name.substring(0, i);
+    }
+
+    private static void addDir(Map<String, List<String>> entries, String dir) {
+        // add the missing ancestors too, they may have no entry in the listing
+        while (!entries.containsKey(dir)) {
+            entries.put(dir, new ArrayList<String>());
+            dir = getParent(dir);
+        }
+    }
+
+    private static Map<String, String> digest(Map<String, List<String>> entries) {
+        // deepest first, so subdirectory digests are ready for their parent
+        List<String> dirs = new ArrayList<>(entries.keySet());
+        dirs.sort(Comparator.comparingInt(DirDigests::depth).reversed());
+
+        Map<String, String> digests = new HashMap<>();
+        for (String dir : dirs) {
+            String digest = digest(entries.get(dir));
+            digests.put(dir, digest);
+            if (!dir.equals(ROOT)) {
+                entries.get(getParent(dir)).add("d\0" + dir + "\0" + digest);
+            }
+        }
+        return digests;
+    }
+
+    private static String digest(List<String> entries) {
+        // the order of the entries in a listing is not stable
+        Collections.sort(entries);
+
+        MessageDigest md = newDigest();
+        for (String entry : entries) {
+            md.update(entry.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static int depth(String dir) {
+        if (dir.equals(ROOT)) {
+            return -1;
+        }
+        int depth = 0;
+        for (int i = 0; i < dir.length(); i++) {
+            if (dir.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local paths changed since the last sync check, grouped by their parent
+ * directory. Adding a path marks all its ancestors in the sync dir too.
+ */
+public class DirtyPaths {
+
+    private final Path root;
+    private final Map<Path, Set<Path>> dirs = new HashMap<>();
+    private boolean overflow;
+
+    public DirtyPaths(Path root) {
+        this.root = root;
+    }
+
+    public void add(Path path) {
+        while (path != null && !path.equals(root) && path.startsWith(root)) {
+            Path parent = path.getParent();
+            Set<Path> children = dirs.get(parent);
+            if (children == null) {
+                children = new HashSet<>();
+                dirs.put(parent, children);
+            }
+            if (!children.add(path)) {
+                // the ancestors are already marked
+                return;
+            }
+            path = parent;
+        }
+    }
+
+    public boolean contains(Path path) {
+        Set<Path> children = dirs.get(path.getParent());
+        return children != null && children.contains(path);
+    }
+
+    public Set<Path> getDirs() {
+        return dirs.keySet();
+    }
+
+    public boolean isEmpty() {
+        return dirs.isEmpty() && !overflow;
+    }
+
+    public boolean isOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow() {
+        overflow = true;
+    }
+
+}
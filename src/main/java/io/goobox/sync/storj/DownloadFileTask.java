@@ -20,99 +20,122 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.concurrent.CountDownLatch;
+import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
 import io.storj.libstorj.Bucket;
-import io.storj.libstorj.DownloadFileCallback;
 import io.storj.libstorj.File;
 
-public class DownloadFileTask implements Runnable {
+public class DownloadFileTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(DownloadFileTask.class);
 
     private Bucket bucket;
     private File file;
+    private long modifiedTime;
 
     public DownloadFileTask(Bucket bucket, File file) {
+        this(bucket, new CloudFile(file));
+    }
+
+    /**
+     * Creates the task with the created time already parsed by the sync
+     * check.
+     */
+    public DownloadFileTask(Bucket bucket, CloudFile file) {
         this.bucket = bucket;
-        this.file = file;
+        this.file = file.getStorjFile();
+        try {
+            this.modifiedTime = file.getCreatedTime();
+        } catch (ParseException e) {
+            // not known
+        }
+    }
+
+    @Override
+    public String getName() {
+        return DB.getName(file);
     }
 
     @Override
-    public void run() {
+    public Workload getWorkload() {
+        return Workload.DOWNLOAD;
+    }
+
+    @Override
+    public long getTransferSize() {
+        return file.getSize();
+    }
+
+    @Override
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
         logger.info("Downloading file {}", file.getName());
 
+        // The task queue runs the download after the task creating its parent
+        // dir. This is a deliberate safety net for a parent with no such task,
+        // e.g. a cloud file listed without an entry for its dir.
         try {
             Files.createDirectories(App.getInstance().getSyncDir().resolve(file.getName()).getParent());
         } catch (IOException e) {
             logger.error("Failed creating parent directories", e);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        final boolean repeat[] = { true };
-
-        while (repeat[0]) {
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            App.getInstance().getStorj().downloadFile(bucket, file, new DownloadFileCallback() {
-                @Override
-                public void onProgress(String fileId, double progress, long downloadedBytes, long totalBytes) {
-                    String progressMessage = String.format("  %3d%% %15d/%d bytes",
-                            (int) (progress * 100), downloadedBytes, totalBytes);
-                    logger.info(progressMessage);
-                }
-
-                @Override
-                public void onComplete(String fileId, String localPath) {
-                    try {
-                        DB.setSynced(file, Paths.get(localPath));
-                        DB.commit();
-                        logger.info("Download completed");
-                    } catch (IOException e) {
-                        logger.error("I/O error", e);
-                    }
-
-                    repeat[0] = false;
-                    latch.countDown();
-                }
-
-                @Override
-                public void onError(String fileId, int code, String message) {
-                    if (StorjUtil.isTemporaryError(code)) {
-                        logger.error("Download failed due to temporary error: {} ({}). Trying again.", message, code);
-                    } else {
-                        Path localPath = App.getInstance().getSyncDir().resolve(file.getName());
-                        try {
-                            DB.setDownloadFailed(file, localPath);
-                            DB.commit();
-                            logger.error("Download failed: {} ({})", message, code);
-                        } catch (IOException e) {
-                            logger.error("I/O error", e);
-                        }
-
-                        repeat[0] = false;
-                    }
-
-                    latch.countDown();
-                }
-            });
-
-            try {
-                latch.await();
-
-                if (repeat[0]) {
-                    // error - wait 3 seconds before trying again
-                    Thread.sleep(3000);
-                }
-            } catch (InterruptedException e) {
-                // interrupted - stop execution
-                return;
+        final StorjClient client = App.getInstance().getStorjClient();
+
+        return client.retry(RetryPolicy.Operation.DOWNLOAD,
+                () -> client.downloadFile(bucket, file, DownloadFileTask::logProgress), e -> {
+            logger.error("Download failed due to temporary error: {} ({}). Trying again.", e.getMessage(), e.getCode());
+            App.getInstance().getConcurrencyLimit(Workload.DOWNLOAD).onTemporaryError();
+        }).thenCompose(localPath -> {
+            // cache the hash of the downloaded content, off the completion thread
+            return ContentHashes.getAsync(Paths.get(localPath)).thenApply(hash -> localPath);
+        }).handle((localPath, e) -> {
+            if (e == null) {
+                onComplete(localPath);
+            } else {
+                onError(e);
             }
+            return null;
+        });
+    }
+
+    private void onComplete(String localPath) {
+        try {
+            DB.setSynced(file, Paths.get(localPath));
+            DB.commit();
+            logger.info("Download completed");
+        } catch (IOException e) {
+            logger.error("I/O error", e);
         }
+
+        App.getInstance().getConcurrencyLimit(Workload.DOWNLOAD).onSuccess(file.getSize());
+    }
+
+    private void onError(Throwable e) {
+        Path localPath = App.getInstance().getSyncDir().resolve(file.getName());
+        try {
+            DB.setDownloadFailed(file, localPath);
+            DB.commit();
+            logger.error("Download failed: {}", StorjClient.getErrorMessage(e));
+        } catch (IOException e1) {
+            logger.error("I/O error", e1);
+        }
+    }
+
+    private static void logProgress(double progress, long downloadedBytes, long totalBytes) {
+        String progressMessage = String.format("  %3d%% %15d/%d bytes",
+                (int) (progress * 100), downloadedBytes, totalBytes);
+        logger.info(progressMessage);
     }
 
 }
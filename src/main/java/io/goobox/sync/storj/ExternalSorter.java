@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts values by a string key within a memory budget. When the buffered
+ * values exceed the budget they are sorted and written to a temporary run
+ * file. The sorted output is a merge of all runs. At most a fixed number of
+ * runs are read at the same time, so more runs are first merged in passes
+ * into fewer, longer runs. Values with equal keys keep the order in which they
+ * were added.
+ */
+public class ExternalSorter<T> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExternalSorter.class);
+
+    // rough per-entry overhead of the buffer: entry object, key string, array
+    private static final int ENTRY_OVERHEAD = 96;
+
+    // runs read at the same time, which bounds the open files and read buffers
+    static final int DEFAULT_FAN_IN = 32;
+    private static final int MIN_READ_BUFFER = 512;
+    private static final int MAX_READ_BUFFER = 64 * 1024;
+
+    public interface Codec<T> {
+
+        void write(DataOutput out, T value) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+    }
+
+    private final Codec<T> codec;
+    private final long memoryBudget;
+    private final int fanIn;
+    private final int readBufferSize;
+
+    private final List<Entry> buffer = new ArrayList<>();
+    private long bufferSize;
+    private long seq;
+
+    private final List<Path> runs = new ArrayList<>();
+    private final List<DataInputStream> openRuns = new ArrayList<>();
+
+    public ExternalSorter(Codec<T> codec, long memoryBudget) {
+        this(codec, memoryBudget, DEFAULT_FAN_IN);
+    }
+
+    public ExternalSorter(Codec<T> codec, long memoryBudget, int fanIn) {
+        this.codec = codec;
+        this.memoryBudget = memoryBudget;
+        this.fanIn = Math.max(2, fanIn);
+        // the read buffers of a merge share the budget with the memory buffer
+        this.readBufferSize = (int) Math.max(MIN_READ_BUFFER,
+                Math.min(MAX_READ_BUFFER, memoryBudget / (this.fanIn + 1)));
+    }
+
+    public void add(String key, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.write(new DataOutputStream(bytes), value);
+
+        Entry entry = new Entry(key, seq++, bytes.toByteArray());
+        buffer.add(entry);
+        bufferSize += ENTRY_OVERHEAD + 2 * key.length() + entry.data.length;
+
+        if (bufferSize >= memoryBudget) {
+            spill();
+        }
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the added values in key order. Must be called once, after all
+     * values are added.
+     */
+    public Iterator<Map.Entry<String, T>> sorted() throws IOException {
+        while (runs.size() > fanIn) {
+            mergeRuns();
+        }
+
+        final PriorityQueue<Source> queue = new PriorityQueue<>();
+
+        buffer.sort(Entry.ORDER);
+        Source memory = new Source(buffer.iterator());
+        if (memory.advance()) {
+            queue.add(memory);
+        }
+
+        for (Path run : runs) {
+            Source source = new Source(openRun(run));
+            if (source.advance()) {
+                queue.add(source);
+            }
+        }
+
+        return new Iterator<Map.Entry<String, T>>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, T> next() {
+                Source source = queue.poll();
+                if (source == null) {
+                    throw new NoSuchElementException();
+                }
+
+                Entry entry = source.current;
+                try {
+                    if (source.advance()) {
+                        queue.add(source);
+                    }
+                    T value = codec.read(new DataInputStream(new ByteArrayInputStream(entry.data)));
+                    return new SimpleImmutableEntry<>(entry.key, value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        for (DataInputStream in : openRuns) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.error("I/O error", e);
+            }
+        }
+        openRuns.clear();
+
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                logger.error("Failed deleting sort run {}", run, e);
+            }
+        }
+        runs.clear();
+
+        buffer.clear();
+        bufferSize = 0;
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(Entry.ORDER);
+
+        Path run = Files.createTempFile("goobox-sort", ".run");
+        runs.add(run);
+        logger.debug("Writing {} entries to sort run {}", buffer.size(), run);
+
+        try (DataOutputStream out = newRunOutput(run)) {
+            for (Entry entry : buffer) {
+                write(out, entry);
+            }
+        }
+
+        buffer.clear();
+        bufferSize = 0;
+    }
+
+    /**
+     * Merges the oldest runs, as many as are read at the same time, into one
+     * new run. The entries carry their sequence number, so the order of the
+     * runs does not matter for equal keys.
+     */
+    private void mergeRuns() throws IOException {
+        List<Path> group = new ArrayList<>(runs.subList(0, fanIn));
+        Path merged = Files.createTempFile("goobox-sort", ".run");
+        logger.debug("Merging {} sort runs into {}", group.size(), merged);
+
+        List<DataInputStream> inputs = new ArrayList<>(group.size());
+        try (DataOutputStream out = newRunOutput(merged)) {
+            PriorityQueue<Source> queue = new PriorityQueue<>();
+            for (Path run : group) {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(run), readBufferSize));
+                inputs.add(in);
+                Source source = new Source(in);
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                Source source = queue.poll();
+                write(out, source.current);
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(merged);
+            throw e;
+        } finally {
+            for (DataInputStream in : inputs) {
+                in.close();
+            }
+        }
+
+        for (Path run : group) {
+            Files.deleteIfExists(run);
+        }
+        runs.subList(0, group.size()).clear();
+        runs.add(merged);
+    }
+
+    private DataInputStream openRun(Path run) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), readBufferSize));
+        openRuns.add(in);
+        return in;
+    }
+
+    private static DataOutputStream newRunOutput(Path run) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)));
+    }
+
+    private static void write(DataOutput out, Entry entry) throws IOException {
+        out.writeUTF(entry.key);
+        out.writeLong(entry.seq);
+        out.writeInt(entry.data.length);
+        out.write(entry.data);
+    }
+
+    private static class Entry {
+
+        static final Comparator<Entry> ORDER = Comparator.<Entry, String> comparing(e -> e.key)
+                .thenComparingLong(e -> e.seq);
+
+        final String key;
+        final long seq;
+        final byte[] data;
+
+        Entry(String key, long seq, byte[] data) {
+            this.key = key;
+            this.seq = seq;
+            this.data = data;
+        }
+
+    }
+
+    /**
+     * The memory buffer or one run file, positioned at its current entry.
+     */
+    private static class Source implements Comparable<Source> {
+
+        private final Iterator<Entry> memory;
+        private final DataInputStream run;
+        Entry current;
+
+        Source(Iterator<Entry> memory) {
+            this.memory = memory;
+            this.run = null;
+        }
+
+        Source(DataInputStream run) {
+            this.memory = null;
+            this.run = run;
+        }
+
+        boolean advance() throws IOException {
+            if (memory != null) {
+                current = memory.hasNext() ? memory.next() : null;
+                return current != null;
+            }
+
+            String key;
+            try {
+                key = run.readUTF();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            long seq = run.readLong();
+            byte[] data = new byte[run.readInt()];
+            run.readFully(data);
+            current = new Entry(key, seq, data);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Source other) {
+            return Entry.ORDER.compare(current, other.current);
+        }
+
+    }
+
+}
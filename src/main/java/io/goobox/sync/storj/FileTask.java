@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A task that works on a single file of the sync dir.
+ */
+public interface FileTask extends Runnable {
+
+    /**
+     * Returns the name of the file as used in the sync DB. The task queue
+     * keeps at most one pending task per name.
+     */
+    String getName();
+
+    /**
+     * Returns the kind of work, which decides the executor the task runs in.
+     */
+    Workload getWorkload();
+
+    /**
+     * Starts the task. The returned future completes when the task is done.
+     * Tasks that wait for the network return before the network calls
+     * complete, so they do not hold the thread that started them.
+     */
+    CompletableFuture<Void> start();
+
+    /**
+     * Starts the task and waits until it is done.
+     */
+    @Override
+    default void run() {
+        CompletableFuture<Void> done = start();
+        try {
+            StorjClient.await(done);
+        } catch (InterruptedException e) {
+            // interrupted - stop waiting
+            done.cancel(true);
+        } catch (CancellationException e) {
+            // nothing to do
+        } catch (StorjException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the task transfers, or 0 if it changes only
+     * metadata.
+     */
+    default long getTransferSize() {
+        return 0;
+    }
+
+    /**
+     * Returns the last modification time of the file in milliseconds, or 0 if
+     * not known.
+     */
+    default long getModifiedTime() {
+        return 0;
+    }
+
+}
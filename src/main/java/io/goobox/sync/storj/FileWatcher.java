@@ -38,6 +38,7 @@ public class FileWatcher extends Thread implements DirectoryChangeListener {
     
     private long lastEventTime;
     private Map<Path, Long> copyInProgress = new HashMap<>();
+    private DirtyPaths dirtyPaths;
 
     @Override
     public void run() {
@@ -84,8 +85,8 @@ public class FileWatcher extends Thread implements DirectoryChangeListener {
                             // last file event was more than 3 seconds ago - fire a sync check
                             lastEventTime = 0;
                             logger.info("3 seconds after the last file event");
-                            App.getInstance().getTaskQueue().add(new CheckStateTask());
-                            App.getInstance().getTaskExecutor().interruptSleeping();
+                            App.getInstance().getTaskQueue().add(new CheckStateTask(),
+                                    App.getInstance().getPollInterval().getEarliestCheck());
                         }
                     }
                 }
@@ -101,6 +102,10 @@ public class FileWatcher extends Thread implements DirectoryChangeListener {
 
         logger.debug("{} {} {} count: {}", lastEventTime, event.eventType(), event.path(), event.count());
 
+        if (event.path() != null) {
+            getDirtyPaths().add(event.path());
+        }
+
         switch (event.eventType()) {
         case CREATE:
         case MODIFY:
@@ -115,6 +120,8 @@ public class FileWatcher extends Thread implements DirectoryChangeListener {
             copyInProgress.remove(event.path());
             break;
         case OVERFLOW:
+            // events were lost - the whole sync dir must be scanned
+            getDirtyPaths().setOverflow();
             break;
         }
     }
@@ -123,4 +130,32 @@ public class FileWatcher extends Thread implements DirectoryChangeListener {
         return lastEventTime != 0;
     }
 
+    public synchronized boolean hasDirtyPaths() {
+        return dirtyPaths != null && !dirtyPaths.isEmpty();
+    }
+
+    /**
+     * Marks the path changed again, so the next sync check looks at it, e.g.
+     * after a check that drained its file events had to leave it alone.
+     */
+    public synchronized void markDirty(Path path) {
+        getDirtyPaths().add(path);
+    }
+
+    /**
+     * Returns the paths changed since the last call and starts collecting anew.
+     */
+    public synchronized DirtyPaths drainDirtyPaths() {
+        DirtyPaths result = getDirtyPaths();
+        dirtyPaths = null;
+        return result;
+    }
+
+    private DirtyPaths getDirtyPaths() {
+        if (dirtyPaths == null) {
+            dirtyPaths = new DirtyPaths(App.getInstance().getSyncDir());
+        }
+        return dirtyPaths;
+    }
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Attributes of a local file or directory, read with a single call when the
+ * sync dir is walked.
+ */
+public class LocalFile {
+
+    private final Path path;
+    private final SyncKey key;
+    private final long lastModified;
+    private final long size;
+    private final Object fileKey;
+
+    public LocalFile(Path path, BasicFileAttributes attrs) {
+        this.path = path;
+        this.key = SyncKey.of(path, attrs.isDirectory());
+        this.lastModified = attrs.lastModifiedTime().toMillis();
+        this.size = attrs.size();
+        this.fileKey = attrs.fileKey();
+    }
+
+    public LocalFile(Path path, boolean directory, long lastModified, long size) {
+        this.path = path;
+        this.key = SyncKey.of(path, directory);
+        this.lastModified = lastModified;
+        this.size = size;
+        this.fileKey = null;
+    }
+
+    public static LocalFile of(Path path) throws IOException {
+        return new LocalFile(path, Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the name used in the sync DB, i.e. the Storj name without
+     * trailing slash.
+     */
+    public String getName() {
+        return key.getName();
+    }
+
+    public String getStorjName() {
+        return key.getStorjName();
+    }
+
+    public boolean isDirectory() {
+        return key.isDirectory();
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the file key from the file system, or <code>null</code> if not
+     * available on this platform.
+     */
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+
+}
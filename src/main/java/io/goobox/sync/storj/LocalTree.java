@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.goobox.sync.storj.db.DB;
+
+/**
+ * In-memory copy of the directory structure of the sync dir. It is built by a
+ * full walk on startup, on file watcher overflow and after the full scan
+ * interval. In between only the directories with dirty paths are listed again.
+ * <p>
+ * Walks run in parallel, one fork/join task per directory, and read the
+ * attributes of every entry once.
+ * </p>
+ */
+public class LocalTree {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalTree.class);
+
+    // walking is I/O bound, so use more threads than cores
+    private static final ForkJoinPool walkPool = new ForkJoinPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private final Path root;
+    private final long fullScanInterval;
+
+    // directory -> its entries in directory stream order
+    private final Map<Path, List<LocalFile>> entries = new HashMap<>();
+    // directory -> digest of its subtree, dropped when the subtree changes
+    private final Map<Path, String> digests = new HashMap<>();
+    private long lastFullScan;
+
+    public LocalTree(Path root, long fullScanInterval) {
+        this.root = root;
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    /**
+     * Brings the tree up to date with the given dirty paths. Paths discovered
+     * in new directories are added to the dirty paths.
+     *
+     * @return <code>true</code> if the whole sync dir was walked again
+     */
+    public synchronized boolean update(DirtyPaths dirtyPaths) {
+        long now = System.currentTimeMillis();
+        if (isFullScanDue() || dirtyPaths.isOverflow()) {
+            logger.info("Scanning the whole sync dir");
+            entries.clear();
+            digests.clear();
+            scan(root, null);
+            lastFullScan = now;
+            return true;
+        }
+
+        // parents first, so new and deleted dirs are handled by their parent
+        List<Path> dirs = new ArrayList<>(dirtyPaths.getDirs());
+        dirs.sort(Comparator.comparingInt(Path::getNameCount));
+
+        for (Path dir : dirs) {
+            List<LocalFile> oldEntries = entries.get(dir);
+            if (oldEntries != null) {
+                relist(dir, oldEntries, dirtyPaths);
+                invalidateDigest(dir);
+            }
+        }
+
+        return false;
+    }
+
+    public synchronized boolean isFullScanDue() {
+        return lastFullScan == 0 || System.currentTimeMillis() - lastFullScan >= fullScanInterval;
+    }
+
+    public synchronized List<LocalFile> getFiles() {
+        Deque<Path> stack = new ArrayDeque<Path>();
+        List<LocalFile> files = new ArrayList<>();
+
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            for (LocalFile file : entries.get(stack.pop())) {
+                if (file.isDirectory()) {
+                    stack.push(file.getPath());
+                }
+                files.add(file);
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Returns the digests of all directories in the tree, keyed by the name
+     * used in the sync DB.
+     *
+     * @see DirDigests
+     */
+    public synchronized Map<String, String> getDigests() {
+        Map<String, String> result = new HashMap<>();
+        for (Path dir : entries.keySet()) {
+            result.put(DB.getName(dir), getDigest(dir));
+        }
+        return result;
+    }
+
+    private String getDigest(Path dir) {
+        String digest = digests.get(dir);
+        if (digest == null) {
+            List<LocalFile> files = entries.get(dir);
+            Map<String, String> subdirDigests = new HashMap<>();
+            for (LocalFile file : files) {
+                if (file.isDirectory() && entries.containsKey(file.getPath())) {
+                    subdirDigests.put(file.getName(), getDigest(file.getPath()));
+                }
+            }
+            digest = DirDigests.local(files, subdirDigests);
+            digests.put(dir, digest);
+        }
+        return digest;
+    }
+
+    private void invalidateDigest(Path dir) {
+        while (dir != null && dir.startsWith(root)) {
+            digests.remove(dir);
+            dir = dir.getParent();
+        }
+    }
+
+    private void relist(Path dir, List<LocalFile> oldEntries, DirtyPaths dirtyPaths) {
+        Map<Path, LocalFile> old = new HashMap<>();
+        for (LocalFile file : oldEntries) {
+            old.put(file.getPath(), file);
+        }
+
+        List<LocalFile> newEntries = new ArrayList<>();
+        for (Path path : list(dir)) {
+            LocalFile oldFile = old.remove(path);
+            if (oldFile != null && !dirtyPaths.contains(path)) {
+                // not changed - no need to read the attributes again
+                newEntries.add(oldFile);
+                continue;
+            }
+
+            LocalFile file = readAttributes(path);
+            if (file == null) {
+                continue;
+            }
+            newEntries.add(file);
+            dirtyPaths.add(path);
+
+            if (file.isDirectory() && !entries.containsKey(path)) {
+                scan(path, dirtyPaths);
+            } else if (!file.isDirectory()) {
+                // could have been a dir before
+                remove(path);
+            }
+        }
+
+        // not in the directory anymore
+        for (Path path : old.keySet()) {
+            remove(path);
+        }
+
+        entries.put(dir, newEntries);
+    }
+
+    private void scan(Path dir, DirtyPaths dirtyPaths) {
+        Map<Path, List<LocalFile>> result = new ConcurrentHashMap<>();
+        walkPool.invoke(new WalkTask(dir, result));
+
+        entries.putAll(result);
+
+        if (dirtyPaths != null) {
+            for (List<LocalFile> files : result.values()) {
+                for (LocalFile file : files) {
+                    dirtyPaths.add(file.getPath());
+                }
+            }
+        }
+    }
+
+    private void remove(Path path) {
+        digests.remove(path);
+        List<LocalFile> children = entries.remove(path);
+        if (children != null) {
+            for (LocalFile child : children) {
+                remove(child.getPath());
+            }
+        }
+    }
+
+    private static List<Path> list(Path dir) {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        } catch (IOException e) {
+            logger.error("I/O error", e);
+            return Collections.emptyList();
+        }
+        return paths;
+    }
+
+    private static LocalFile readAttributes(Path path) {
+        try {
+            return LocalFile.of(path);
+        } catch (IOException e) {
+            // deleted after listing the dir
+            logger.debug("Cannot read attributes of {}", path, e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class WalkTask extends RecursiveAction {
+
+        private final Path dir;
+        private final Map<Path, List<LocalFile>> result;
+
+        WalkTask(Path dir, Map<Path, List<LocalFile>> result) {
+            this.dir = dir;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            List<LocalFile> files = new ArrayList<>();
+            List<WalkTask> subdirs = new ArrayList<>();
+
+            for (Path path : list(dir)) {
+                LocalFile file = readAttributes(path);
+                if (file != null) {
+                    files.add(file);
+                    if (file.isDirectory()) {
+                        subdirs.add(new WalkTask(path, result));
+                    }
+                }
+            }
+
+            result.put(dir, files);
+            invokeAll(subdirs);
+        }
+
+    }
+
+}
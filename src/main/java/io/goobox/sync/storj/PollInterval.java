@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to wait between two checks for changes while idle. It drops to the
+ * minimum when the cloud listing changed since the previous check and doubles
+ * after every check that found the listing unchanged, up to the maximum.
+ * <p>
+ * Checks are never started closer than the minimum interval, even if a local
+ * change ends the wait early.
+ * </p>
+ */
+public class PollInterval {
+
+    public static final long MIN_INTERVAL = TimeUnit.SECONDS.toMillis(15);
+    public static final long DEFAULT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final long maxInterval;
+
+    private long interval;
+    private String lastFingerprint;
+    private long lastCheck;
+
+    public PollInterval(long maxInterval) {
+        this.maxInterval = Math.max(MIN_INTERVAL, maxInterval);
+        this.interval = Math.min(DEFAULT_INTERVAL, this.maxInterval);
+    }
+
+    /**
+     * Called on every check with the fingerprint of the cloud listing.
+     *
+     * @see StorjUtil#getFingerprint(io.storj.libstorj.File[])
+     */
+    public synchronized void onCheck(String fingerprint) {
+        if (lastFingerprint != null) {
+            if (lastFingerprint.equals(fingerprint)) {
+                interval = Math.min(interval * 2, maxInterval);
+            } else {
+                interval = MIN_INTERVAL;
+            }
+        }
+        lastFingerprint = fingerprint;
+        lastCheck = System.currentTimeMillis();
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Returns the time the next check is due, unless a change brings it
+     * forward.
+     */
+    public synchronized long getNextCheck() {
+        return lastCheck + interval;
+    }
+
+    /**
+     * Returns the earliest time the next check may start.
+     */
+    public synchronized long getEarliestCheck() {
+        return lastCheck + MIN_INTERVAL;
+    }
+
+}
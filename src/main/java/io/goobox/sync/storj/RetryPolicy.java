@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.storj.libstorj.Storj;
+
+/**
+ * Decides if and when a failed libstorj call is made again. The delay grows
+ * exponentially with the failed attempts and is drawn at random below that
+ * bound (full jitter), so clients that failed together do not come back
+ * together. Each {@link Operation} has its own budget of attempts and a
+ * deadline counted from the first failure.
+ */
+public class RetryPolicy {
+
+    public static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(1);
+    // the bridge is overloaded - back off faster
+    public static final long OVERLOAD_BASE_DELAY = TimeUnit.SECONDS.toMillis(5);
+    public static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+    // a transfer that used up its budget is tried again by a later check
+    public static final long FAILED_RETRY_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+    private static final RetryPolicy DEFAULT = new RetryPolicy();
+
+    /**
+     * The kinds of calls made again on failure. A budget or a deadline of 0
+     * means no limit.
+     * <p>
+     * The stall timeout is the time a single call may go without a callback,
+     * or for transfers without progress, before the {@link Watchdog} aborts
+     * it.
+     * </p>
+     */
+    public enum Operation {
+
+        LIST_FILES("list-files", 0, 0, TimeUnit.MINUTES.toMillis(5)),
+        GET_FILE_ID("get-file-id", 10, TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(2)),
+        GET_FILE("get-file", 10, TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(2)),
+        DELETE_FILE("delete-file", 10, TimeUnit.MINUTES.toMillis(15), TimeUnit.MINUTES.toMillis(2)),
+        // made with an upload call, which is watched as such
+        CREATE_DIR("create-dir", 10, TimeUnit.MINUTES.toMillis(15), 0),
+        UPLOAD("upload", 10, TimeUnit.MINUTES.toMillis(60), TimeUnit.MINUTES.toMillis(10)),
+        DOWNLOAD("download", 10, TimeUnit.MINUTES.toMillis(60), TimeUnit.MINUTES.toMillis(10));
+
+        private final String id;
+        private final int maxAttempts;
+        private final long deadline;
+        private final long stallTimeout;
+
+        private Operation(String id, int maxAttempts, long deadline, long stallTimeout) {
+            this.id = id;
+            this.maxAttempts = maxAttempts;
+            this.deadline = deadline;
+            this.stallTimeout = stallTimeout;
+        }
+
+        /**
+         * Returns the name used in command line options and the log.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the number of attempts after which the call is not made
+         * again.
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        /**
+         * Returns the time since the first failure after which the call is not
+         * made again. It does not include the time the first attempt ran, so
+         * a long transfer that fails late is still made again.
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Returns the default stall timeout, or 0 if calls of this kind are
+         * not watched.
+         */
+        public long getStallTimeout() {
+            return stallTimeout;
+        }
+
+    }
+
+    private final Random random;
+
+    /**
+     * Creates a policy with an unseeded random jitter.
+     */
+    public RetryPolicy() {
+        this(null);
+    }
+
+    /**
+     * Creates a policy that draws the jitter from the given random, so the
+     * delays can be repeated.
+     */
+    public RetryPolicy(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Returns the policy shared by all tasks.
+     */
+    public static RetryPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks if an operation failed with the given error may succeed when
+     * made again.
+     */
+    public boolean isRetryable(Operation operation, int code) {
+        if (operation == Operation.CREATE_DIR && code == Storj.STORJ_BRIDGE_BUCKET_FILE_EXISTS) {
+            // this happens sometimes after farmer request error
+            return true;
+        }
+        return code == Storj.HTTP_TOO_MANY_REQUESTS || StorjUtil.isTemporaryError(code);
+    }
+
+    /**
+     * Returns the time to wait after the given number of failed attempts.
+     *
+     * @param code
+     *            the error of the last attempt
+     * @param attempts
+     *            the number of failed attempts, at least 1
+     */
+    public long getBackoff(int code, int attempts) {
+        long base = isOverload(code) ? OVERLOAD_BASE_DELAY : BASE_DELAY;
+        // 2^20 seconds are far above the maximum already
+        long bound = Math.min(MAX_DELAY, base << Math.min(Math.max(attempts, 1) - 1, 20));
+        return (long) (random().nextDouble() * (bound + 1));
+    }
+
+    /**
+     * Returns the time to wait before making a failed call again.
+     *
+     * @param operation
+     *            the kind of call
+     * @param code
+     *            the error of the last attempt
+     * @param attempts
+     *            the number of failed attempts, at least 1
+     * @param elapsed
+     *            the time since the first failed attempt
+     * @return the delay, or -1 if the call must not be made again
+     */
+    public long getRetryDelay(Operation operation, int code, int attempts, long elapsed) {
+        if (!isRetryable(operation, code)) {
+            return -1;
+        }
+        if (operation.maxAttempts > 0 && attempts >= operation.maxAttempts) {
+            return -1;
+        }
+
+        long delay = getBackoff(code, attempts);
+        if (operation.deadline > 0 && elapsed + delay > operation.deadline) {
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * Returns the time after which a file whose transfer failed for good is
+     * transferred again, even if it did not change. A long outage uses up
+     * the budget of the operation, and without this the file would stay
+     * unsynced.
+     */
+    public long getFailedRetryDelay() {
+        return FAILED_RETRY_DELAY;
+    }
+
+    private static boolean isOverload(int code) {
+        return code == Storj.HTTP_TOO_MANY_REQUESTS
+                || code == Storj.HTTP_INTERNAL_SERVER_ERROR
+                || code == Storj.HTTP_SERVICE_UNAVAILABLE
+                || code == Storj.STORJ_BRIDGE_INTERNAL_ERROR;
+    }
+
+    private Random random() {
+        return (random != null) ? random : ThreadLocalRandom.current();
+    }
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.goobox.sync.storj.db.DB;
+import io.goobox.sync.storj.db.SyncFile;
+import io.goobox.sync.storj.db.SyncState;
+import io.storj.libstorj.File;
+
+/**
+ * Joins the cloud files, the local files and the sync DB records by name. Each
+ * source is sorted by name with an {@link ExternalSorter}, so only a bounded
+ * part of it is held in memory, and the sorted sources are merged in a single
+ * pass.
+ */
+public class SortMerge implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SortMerge.class);
+
+    public interface Handler {
+
+        /**
+         * Called once per name in ascending order.
+         *
+         * @param cloudFiles
+         *            the cloud files with this name in listing order, may be
+         *            empty
+         * @param localFile
+         *            the local file, or <code>null</code>
+         * @param syncFile
+         *            the sync DB record, or <code>null</code>
+         */
+        void onName(String name, List<CloudFile> cloudFiles, LocalFile localFile, SyncFile syncFile);
+
+    }
+
+    private final ExternalSorter<CloudFile> cloudFiles;
+    private final ExternalSorter<LocalFile> localFiles;
+    private final ExternalSorter<SyncFile> syncFiles;
+
+    public SortMerge(long memoryBudget) {
+        // split the budget between the three sources
+        cloudFiles = new ExternalSorter<>(new CloudFileCodec(), memoryBudget / 3);
+        localFiles = new ExternalSorter<>(new LocalFileCodec(), memoryBudget / 3);
+        syncFiles = new ExternalSorter<>(new SyncFileCodec(), memoryBudget / 3);
+    }
+
+    public void addCloudFiles(CloudFile[] files) throws IOException {
+        for (CloudFile file : files) {
+            cloudFiles.add(file.getName(), file);
+        }
+    }
+
+    public void addLocalFiles(final Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root)) {
+                    addLocalFile(new LocalFile(dir, attrs));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                addLocalFile(new LocalFile(file, attrs));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted while walking
+                logger.debug("Cannot read attributes of {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void addLocalFile(LocalFile localFile) throws IOException {
+        localFiles.add(localFile.getName(), localFile);
+    }
+
+    public void addSyncFiles() throws IOException {
+        try {
+            DB.forEach(syncFile -> {
+                try {
+                    addSyncFile(syncFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void addSyncFile(SyncFile syncFile) throws IOException {
+        syncFiles.add(syncFile.getName(), syncFile);
+    }
+
+    public void join(Handler handler) throws IOException {
+        Iterator<Map.Entry<String, CloudFile>> cloud = cloudFiles.sorted();
+        Iterator<Map.Entry<String, LocalFile>> local = localFiles.sorted();
+        Iterator<Map.Entry<String, SyncFile>> sync = syncFiles.sorted();
+
+        Map.Entry<String, CloudFile> nextCloud = next(cloud);
+        Map.Entry<String, LocalFile> nextLocal = next(local);
+        Map.Entry<String, SyncFile> nextSync = next(sync);
+
+        while (nextCloud != null || nextLocal != null || nextSync != null) {
+            String name = min(min(key(nextCloud), key(nextLocal)), key(nextSync));
+
+            List<CloudFile> files = new ArrayList<>(1);
+            while (nextCloud != null && name.equals(nextCloud.getKey())) {
+                files.add(nextCloud.getValue());
+                nextCloud = next(cloud);
+            }
+
+            LocalFile localFile = null;
+            while (nextLocal != null && name.equals(nextLocal.getKey())) {
+                if (localFile == null) {
+                    localFile = nextLocal.getValue();
+                }
+                nextLocal = next(local);
+            }
+
+            SyncFile syncFile = null;
+            while (nextSync != null && name.equals(nextSync.getKey())) {
+                if (syncFile == null) {
+                    syncFile = nextSync.getValue();
+                }
+                nextSync = next(sync);
+            }
+
+            handler.onName(name, files, localFile, syncFile);
+        }
+    }
+
+    @Override
+    public void close() {
+        cloudFiles.close();
+        localFiles.close();
+        syncFiles.close();
+    }
+
+    private static <T> Map.Entry<String, T> next(Iterator<Map.Entry<String, T>> i) throws IOException {
+        try {
+            return i.hasNext() ? i.next() : null;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String key(Map.Entry<String, ?> entry) {
+        return (entry == null) ? null : entry.getKey();
+    }
+
+    private static String min(String a, String b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        return (a.compareTo(b) <= 0) ? a : b;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static class CloudFileCodec implements ExternalSorter.Codec<CloudFile> {
+
+        @Override
+        public void write(DataOutput out, CloudFile cloudFile) throws IOException {
+            File file = cloudFile.getStorjFile();
+            writeString(out, file.getId());
+            writeString(out, file.getBucketId());
+            writeString(out, file.getName());
+            writeString(out, file.getCreated());
+            out.writeBoolean(file.isDecrypted());
+            out.writeLong(file.getSize());
+            writeString(out, file.getMimeType());
+            writeString(out, file.getErasure());
+            writeString(out, file.getIndex());
+            writeString(out, file.getHMAC());
+            try {
+                // no need to parse the timestamp again when reading
+                long createdTime = cloudFile.getCreatedTime();
+                out.writeBoolean(true);
+                out.writeLong(createdTime);
+            } catch (ParseException e) {
+                out.writeBoolean(false);
+            }
+        }
+
+        @Override
+        public CloudFile read(DataInput in) throws IOException {
+            File file = new File(readString(in), readString(in), readString(in), readString(in), in.readBoolean(),
+                    in.readLong(), readString(in), readString(in), readString(in), readString(in));
+            return in.readBoolean() ? new CloudFile(file, in.readLong()) : new CloudFile(file);
+        }
+
+    }
+
+    private static class LocalFileCodec implements ExternalSorter.Codec<LocalFile> {
+
+        @Override
+        public void write(DataOutput out, LocalFile file) throws IOException {
+            out.writeUTF(file.getPath().toString());
+            out.writeBoolean(file.isDirectory());
+            out.writeLong(file.getLastModified());
+            out.writeLong(file.getSize());
+        }
+
+        @Override
+        public LocalFile read(DataInput in) throws IOException {
+            return new LocalFile(Paths.get(in.readUTF()), in.readBoolean(), in.readLong(), in.readLong());
+        }
+
+    }
+
+    private static class SyncFileCodec implements ExternalSorter.Codec<SyncFile> {
+
+        @Override
+        public void write(DataOutput out, SyncFile file) throws IOException {
+            out.writeUTF(file.getName());
+            writeString(out, file.getStorjId());
+            out.writeLong(file.getStorjCreatedTime());
+            out.writeLong(file.getStorjSize());
+            writeString(out, file.getStorjHmac());
+            out.writeLong(file.getLocalModifiedTime());
+            out.writeLong(file.getLocalSize());
+            writeString(out, file.getLocalHash());
+            writeString(out, (file.getState() == null) ? null : file.getState().name());
+            out.writeLong(file.getFailedTime());
+        }
+
+        @Override
+        public SyncFile read(DataInput in) throws IOException {
+            SyncFile file = new SyncFile();
+            file.setName(in.readUTF());
+            file.setStorjId(readString(in));
+            file.setStorjCreatedTime(in.readLong());
+            file.setStorjSize(in.readLong());
+            file.setStorjHmac(readString(in));
+            file.setLocalModifiedTime(in.readLong());
+            file.setLocalSize(in.readLong());
+            file.setLocalHash(readString(in));
+            String state = readString(in);
+            file.setState((state == null) ? null : SyncState.valueOf(state));
+            file.setFailedTime(in.readLong());
+            return file;
+        }
+
+    }
+
+}
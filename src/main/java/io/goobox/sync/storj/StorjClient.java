@@ -0,0 +1,610 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.goobox.sync.storj.RetryPolicy.Operation;
+import io.storj.libstorj.Bucket;
+import io.storj.libstorj.DeleteFileCallback;
+import io.storj.libstorj.DownloadFileCallback;
+import io.storj.libstorj.File;
+import io.storj.libstorj.GetFileCallback;
+import io.storj.libstorj.GetFileIdCallback;
+import io.storj.libstorj.ListFilesCallback;
+import io.storj.libstorj.Storj;
+import io.storj.libstorj.UploadFileCallback;
+
+/**
+ * Asynchronous view of the {@link Storj} API. Each call returns a
+ * {@link CompletableFuture} that is completed by the libstorj callback, or
+ * completed exceptionally with a {@link StorjException}, so no thread has to
+ * wait for the network.
+ * <p>
+ * With a completion executor the callbacks only pass the result on, so the
+ * DB and overlay work of the dependent stages does not hold up the native
+ * event loop and the other transfers on it.
+ * </p>
+ * <p>
+ * The outcome of every call is passed to a {@link CircuitBreaker}, and the
+ * calls made with {@link #retry} wait while it is open. A {@link Watchdog}
+ * aborts the calls whose callback does not come.
+ * </p>
+ */
+public class StorjClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorjClient.class);
+
+    private static final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "storj-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    public interface ProgressListener {
+
+        void onProgress(double progress, long bytes, long totalBytes);
+
+    }
+
+    private final Storj storj;
+    private final Executor completions;
+    private final CircuitBreaker breaker;
+    private final Watchdog watchdog;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Creates a client that completes the futures on the libstorj callback
+     * thread.
+     */
+    public StorjClient(Storj storj) {
+        this(storj, Runnable::run);
+    }
+
+    /**
+     * Creates a client that completes the futures, and so runs the dependent
+     * stages, on the given executor. The libstorj callbacks only hand over
+     * the result and return to the native event loop.
+     */
+    public StorjClient(Storj storj, Executor completions) {
+        this(storj, completions, new CircuitBreaker(), null);
+    }
+
+    /**
+     * Creates a client that shares the circuit breaker with other clients of
+     * the same bridge and has its calls watched by the given watchdog, if
+     * not <code>null</code>.
+     */
+    public StorjClient(Storj storj, Executor completions, CircuitBreaker breaker, Watchdog watchdog) {
+        this.storj = storj;
+        this.completions = completions;
+        this.breaker = breaker;
+        this.watchdog = watchdog;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Returns the number of calls waiting for their callback.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public CompletableFuture<File[]> listFiles(Bucket bucket) {
+        final CompletableFuture<File[]> future = new CompletableFuture<>();
+        watch(future, Operation.LIST_FILES, bucket.getName());
+        return call(future, () -> storj.listFiles(bucket, new ListFilesCallback() {
+            @Override
+            public void onFilesReceived(String bucketId, File[] files) {
+                complete(future, files);
+            }
+
+            @Override
+            public void onError(String bucketId, int code, String message) {
+                fail(future, code, message);
+            }
+        }));
+    }
+
+    /**
+     * Looks up the id of a file by name. Completes with <code>null</code> if
+     * there is no such file.
+     */
+    public CompletableFuture<String> getFileId(Bucket bucket, String fileName) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        watch(future, Operation.GET_FILE_ID, fileName);
+        return call(future, () -> storj.getFileId(bucket, fileName, new GetFileIdCallback() {
+            @Override
+            public void onFileIdReceived(String fileName, String fileId) {
+                complete(future, fileId);
+            }
+
+            @Override
+            public void onError(String fileName, int code, String message) {
+                if (code == Storj.HTTP_NOT_FOUND) {
+                    complete(future, null);
+                } else {
+                    fail(future, code, message);
+                }
+            }
+        }));
+    }
+
+    public CompletableFuture<File> getFile(Bucket bucket, String fileId) {
+        final CompletableFuture<File> future = new CompletableFuture<>();
+        watch(future, Operation.GET_FILE, fileId);
+        return call(future, () -> storj.getFile(bucket, fileId, new GetFileCallback() {
+            @Override
+            public void onFileReceived(File file) {
+                complete(future, file);
+            }
+
+            @Override
+            public void onError(String fileId, int code, String message) {
+                fail(future, code, message);
+            }
+        }));
+    }
+
+    public CompletableFuture<Void> deleteFile(Bucket bucket, File file) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        watch(future, Operation.DELETE_FILE, file.getName());
+        return call(future, () -> storj.deleteFile(bucket, file, deleteCallback(future)));
+    }
+
+    public CompletableFuture<Void> deleteFile(String bucketId, String fileId) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        watch(future, Operation.DELETE_FILE, fileId);
+        return call(future, () -> storj.deleteFile(bucketId, fileId, deleteCallback(future)));
+    }
+
+    /**
+     * Uploads a file. Cancelling the returned future cancels the upload.
+     */
+    public CompletableFuture<File> uploadFile(Bucket bucket, String fileName, String localPath,
+            final ProgressListener listener) {
+        final Transfer<File> future = new Transfer<>(storj::cancelUpload);
+        final ProgressReport report = new ProgressReport(listener, future);
+        watch(future, Operation.UPLOAD, fileName);
+        return call(future, () -> future.start(storj.uploadFile(bucket, fileName, localPath, new UploadFileCallback() {
+            @Override
+            public void onProgress(String filePath, double progress, long uploadedBytes, long totalBytes) {
+                report.update(progress, uploadedBytes, totalBytes);
+            }
+
+            @Override
+            public void onComplete(String filePath, File file) {
+                complete(future, file);
+            }
+
+            @Override
+            public void onError(String filePath, int code, String message) {
+                fail(future, code, message);
+            }
+        })));
+    }
+
+    /**
+     * Downloads a file into the download directory. Completes with the local
+     * path of the file. Cancelling the returned future cancels the download.
+     */
+    public CompletableFuture<String> downloadFile(Bucket bucket, File file, final ProgressListener listener) {
+        final Transfer<String> future = new Transfer<>(storj::cancelDownload);
+        final ProgressReport report = new ProgressReport(listener, future);
+        watch(future, Operation.DOWNLOAD, file.getName());
+        return call(future, () -> future.start(storj.downloadFile(bucket, file, new DownloadFileCallback() {
+            @Override
+            public void onProgress(String fileId, double progress, long downloadedBytes, long totalBytes) {
+                report.update(progress, downloadedBytes, totalBytes);
+            }
+
+            @Override
+            public void onComplete(String fileId, String localPath) {
+                complete(future, localPath);
+            }
+
+            @Override
+            public void onError(String fileId, int code, String message) {
+                fail(future, code, message);
+            }
+        })));
+    }
+
+    /**
+     * Makes a libstorj call that completes the given future and counts it as
+     * in flight until then.
+     */
+    private <F extends CompletableFuture<?>> F call(F future, Runnable call) {
+        inFlight.incrementAndGet();
+        future.whenComplete((result, e) -> {
+            inFlight.decrementAndGet();
+            if (e == null) {
+                breaker.onSuccess();
+            } else if (unwrap(e) instanceof StorjException) {
+                breaker.onResult(((StorjException) unwrap(e)).getCode());
+            }
+        });
+        try {
+            call.run();
+        } catch (RuntimeException | Error e) {
+            // e.g. no keys
+            future.completeExceptionally(e);
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Makes the call and, as long as it fails with an error the shared
+     * {@link RetryPolicy} allows to retry, makes it again after the delay of
+     * the policy. The listener is called before each new attempt. The timer
+     * thread only starts the next attempt.
+     * <p>
+     * While the circuit breaker is open the next attempt waits until it
+     * closes, without using up the budget of the operation.
+     * </p>
+     * <p>
+     * Cancelling the returned future cancels the running attempt, e.g. the
+     * libstorj transfer, and no further attempt is made.
+     * </p>
+     */
+    public <T> CompletableFuture<T> retry(Operation operation,
+            Supplier<CompletableFuture<T>> call, Consumer<StorjException> onRetry) {
+        return retry(RetryPolicy.getDefault(), operation, call, onRetry);
+    }
+
+    public <T> CompletableFuture<T> retry(RetryPolicy policy, Operation operation,
+            Supplier<CompletableFuture<T>> call, Consumer<StorjException> onRetry) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        new Retry<>(policy, breaker, operation, call, onRetry, result).attempt();
+        return result;
+    }
+
+    /**
+     * Waits for the future and returns its value.
+     *
+     * @throws StorjException
+     *             if the future failed with a libstorj error
+     * @throws CancellationException
+     *             if the future was cancelled
+     */
+    public static <T> T await(CompletableFuture<T> future) throws StorjException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof StorjException) {
+                throw (StorjException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Returns the error a stage failed with.
+     */
+    public static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    /**
+     * Returns the message of the error a stage failed with, in the form used
+     * in the log.
+     */
+    public static String getErrorMessage(Throwable e) {
+        Throwable cause = unwrap(e);
+        if (cause instanceof StorjException) {
+            return cause.getMessage() + " (" + ((StorjException) cause).getCode() + ")";
+        } else if (cause instanceof CancellationException) {
+            return "canceled";
+        }
+        return cause.toString();
+    }
+
+    /**
+     * Lets the watchdog abort the call of the given future if its callback
+     * does not come in time.
+     */
+    private void watch(final CompletableFuture<?> future, final Operation operation, String target) {
+        if (watchdog == null) {
+            return;
+        }
+        final Watchdog.Watch watch = watchdog.watch(operation, target, () -> abort(operation, future));
+        if (watch == null) {
+            return;
+        }
+        if (future instanceof Transfer) {
+            ((Transfer<?>) future).watch = watch;
+        }
+        future.whenComplete((result, e) -> watchdog.unwatch(watch));
+    }
+
+    /**
+     * Fails a stalled call with a timeout, which the retry policy takes as a
+     * temporary error.
+     */
+    private void abort(Operation operation, final CompletableFuture<?> future) {
+        final StorjException e = new StorjException(Storj.CURLE_OPERATION_TIMEDOUT,
+                "no callback for " + operation.getId() + " in time");
+        if (future instanceof Transfer) {
+            // also free the transfer state in libstorj
+            dispatch(() -> ((Transfer<?>) future).abort(e));
+        } else {
+            dispatch(() -> future.completeExceptionally(e));
+        }
+    }
+
+    private <T> void complete(final CompletableFuture<T> future, final T value) {
+        dispatch(() -> future.complete(value));
+    }
+
+    private void fail(final CompletableFuture<?> future, final int code, final String message) {
+        dispatch(() -> future.completeExceptionally(new StorjException(code, message)));
+    }
+
+    private void dispatch(Runnable completion) {
+        try {
+            completions.execute(completion);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            completion.run();
+        }
+    }
+
+    private DeleteFileCallback deleteCallback(final CompletableFuture<Void> future) {
+        return new DeleteFileCallback() {
+            @Override
+            public void onFileDeleted(String fileId) {
+                complete(future, null);
+            }
+
+            @Override
+            public void onError(String fileId, int code, String message) {
+                fail(future, code, message);
+            }
+        };
+    }
+
+    /**
+     * Passes the progress of a transfer to the listener on the completion
+     * executor. Reports that arrive while one is waiting only update it.
+     */
+    private class ProgressReport implements Runnable {
+
+        private final ProgressListener listener;
+        private final Transfer<?> transfer;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile double progress;
+        private volatile long bytes;
+        private volatile long totalBytes;
+
+        ProgressReport(ProgressListener listener, Transfer<?> transfer) {
+            this.listener = listener;
+            this.transfer = transfer;
+        }
+
+        void update(double progress, long bytes, long totalBytes) {
+            this.progress = progress;
+            this.bytes = bytes;
+            this.totalBytes = totalBytes;
+            Watchdog.Watch watch = transfer.watch;
+            if (watch != null) {
+                watch.touch();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                dispatch(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled.set(false);
+            listener.onProgress(progress, bytes, totalBytes);
+        }
+
+    }
+
+    /**
+     * The attempts of one call made with {@link StorjClient#retry}.
+     */
+    private static class Retry<T> {
+
+        private final RetryPolicy policy;
+        private final CircuitBreaker breaker;
+        private final Operation operation;
+        private final Supplier<CompletableFuture<T>> call;
+        private final Consumer<StorjException> onRetry;
+        private final CompletableFuture<T> result;
+        // the running attempt, cancelled together with the result
+        private volatile CompletableFuture<T> current;
+        // the deadline is counted from here, so it leaves out the time a
+        // transfer spent making progress before it failed
+        private long firstFailure;
+        private int attempts;
+        private int lastCode;
+
+        Retry(RetryPolicy policy, CircuitBreaker breaker, Operation operation,
+                Supplier<CompletableFuture<T>> call, Consumer<StorjException> onRetry, CompletableFuture<T> result) {
+            this.policy = policy;
+            this.breaker = breaker;
+            this.operation = operation;
+            this.call = call;
+            this.onRetry = onRetry;
+            this.result = result;
+            result.whenComplete((value, e) -> {
+                if (result.isCancelled()) {
+                    cancelCurrent();
+                }
+            });
+        }
+
+        void attempt() {
+            if (result.isDone()) {
+                // cancelled
+                return;
+            }
+
+            if (!breaker.isClosed()) {
+                // offline - spread the waiting attempts once the bridge is back
+                breaker.whenClosed().thenRun(() -> retryTimer.schedule(this::attempt,
+                        policy.getBackoff(lastCode, 1), TimeUnit.MILLISECONDS));
+                return;
+            }
+
+            CompletableFuture<T> attempt;
+            try {
+                attempt = call.get();
+            } catch (RuntimeException | Error e) {
+                // e.g. no keys - on the timer thread it would be lost and the
+                // result never completed
+                result.completeExceptionally(e);
+                return;
+            }
+
+            current = attempt;
+            if (result.isCancelled()) {
+                // cancelled while the attempt was started
+                cancelCurrent();
+                return;
+            }
+
+            attempt.whenComplete((value, e) -> {
+                if (result.isDone()) {
+                    // cancelled - do not try again
+                    return;
+                }
+                if (e == null) {
+                    result.complete(value);
+                    return;
+                }
+
+                Throwable cause = unwrap(e);
+                if (!(cause instanceof StorjException)) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+
+                StorjException error = (StorjException) cause;
+                lastCode = error.getCode();
+                long now = System.currentTimeMillis();
+                if (attempts == 0) {
+                    firstFailure = now;
+                }
+                long delay = policy.getRetryDelay(operation, error.getCode(), ++attempts, now - firstFailure);
+                if (delay < 0) {
+                    result.completeExceptionally(error);
+                    return;
+                }
+
+                onRetry.accept(error);
+                logger.debug("Attempt {} of {} failed, trying again in {} ms", attempts, operation, delay);
+                retryTimer.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+            });
+        }
+
+        private void cancelCurrent() {
+            CompletableFuture<T> attempt = current;
+            if (attempt != null) {
+                // a transfer also cancels the upload or download in libstorj
+                attempt.cancel(false);
+            }
+        }
+
+    }
+
+    /**
+     * Future of an upload or download, which cancels the transfer when
+     * cancelled or aborted.
+     */
+    private static class Transfer<T> extends CompletableFuture<T> {
+
+        private final LongConsumer canceller;
+        private long state;
+        private boolean started;
+        private boolean aborted;
+        volatile Watchdog.Watch watch;
+
+        Transfer(LongConsumer canceller) {
+            this.canceller = canceller;
+        }
+
+        synchronized void start(long state) {
+            this.state = state;
+            this.started = true;
+            if (isCancelled() || aborted) {
+                canceller.accept(state);
+            }
+        }
+
+        /**
+         * Fails the future with the given error and cancels the transfer,
+         * unless the transfer is already done.
+         */
+        void abort(StorjException e) {
+            if (completeExceptionally(e)) {
+                synchronized (this) {
+                    aborted = true;
+                    if (started) {
+                        canceller.accept(state);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                synchronized (this) {
+                    if (started) {
+                        canceller.accept(state);
+                    }
+                }
+            }
+            return cancelled;
+        }
+
+    }
+
+}
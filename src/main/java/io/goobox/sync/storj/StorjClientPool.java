@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.storj.libstorj.Storj;
+
+/**
+ * Several {@link Storj} instances, each with its own native event loop. The
+ * tasks are spread over them by the number of calls each one has in flight.
+ * All clients talk to the same bridge, so they share one
+ * {@link CircuitBreaker} and one {@link Watchdog}.
+ */
+public class StorjClientPool implements StorjClientPoolMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorjClientPool.class);
+
+    private final StorjClient[] clients;
+    private final ThreadPoolExecutor completions;
+    private final CircuitBreaker breaker = new CircuitBreaker();
+    private final Watchdog watchdog = new Watchdog();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a pool that completes the calls on the libstorj callback
+     * threads.
+     */
+    public StorjClientPool(Storj... instances) {
+        this(null, instances);
+    }
+
+    /**
+     * Creates a pool that completes the calls on the given executor.
+     */
+    public StorjClientPool(ThreadPoolExecutor completions, Storj... instances) {
+        this.completions = completions;
+        clients = new StorjClient[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            clients[i] = new StorjClient(instances[i], (completions != null) ? completions : Runnable::run,
+                    breaker, watchdog);
+        }
+    }
+
+    /**
+     * Returns the client with the fewest calls in flight. Ties are broken in
+     * turn, so idle clients are used evenly.
+     */
+    public StorjClient get() {
+        int start = Math.floorMod(next.getAndIncrement(), clients.length);
+        StorjClient best = null;
+        for (int i = 0; i < clients.length; i++) {
+            StorjClient client = clients[(start + i) % clients.length];
+            if (best == null || client.getInFlight() < best.getInFlight()) {
+                best = client;
+            }
+        }
+        return best;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Returns the watchdog of the calls. It is not started by the pool.
+     */
+    public Watchdog getWatchdog() {
+        return watchdog;
+    }
+
+    /**
+     * Publishes the gauges of the pool as a platform MXBean.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("io.goobox.sync.storj:type=StorjClientPool"));
+        } catch (JMException e) {
+            logger.warn("Cannot register the gauges of the Storj client pool", e);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return clients.length;
+    }
+
+    @Override
+    public int getInFlight() {
+        int sum = 0;
+        for (StorjClient client : clients) {
+            sum += client.getInFlight();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getPendingCompletions() {
+        return (completions != null) ? completions.getQueue().size() : 0;
+    }
+
+    @Override
+    public int[] getInFlightPerClient() {
+        int[] result = new int[clients.length];
+        for (int i = 0; i < clients.length; i++) {
+            result[i] = clients[i].getInFlight();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+/**
+ * Gauges of a {@link StorjClientPool}, published as a platform MXBean.
+ */
+public interface StorjClientPoolMXBean {
+
+    int getSize();
+
+    /**
+     * Returns the number of libstorj calls waiting for their callback.
+     */
+    int getInFlight();
+
+    int[] getInFlightPerClient();
+
+    /**
+     * Returns the number of callback results waiting for the completion
+     * executor.
+     */
+    int getPendingCompletions();
+
+}
@@ -16,26 +16,28 @@
  */
 package io.goobox.sync.storj;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+/**
+ * Error reported by a libstorj callback.
+ */
+@SuppressWarnings("serial")
+public class StorjException extends Exception {
 
-public class SleepTask implements Runnable {
+    private final int code;
 
-    private static final Logger logger = LoggerFactory.getLogger(SleepTask.class);
+    public StorjException(int code, String message) {
+        super(message);
+        this.code = code;
+    }
 
-    @Override
-    public synchronized void run() {
-        logger.info("Sleeping for 1 minute");
-        try {
-            wait(60000);
-        } catch (InterruptedException e) {
-            // nothing to do
-        }
+    /**
+     * Returns the libstorj or HTTP error code.
+     */
+    public int getCode() {
+        return code;
     }
 
-    public synchronized void interrupt() {
-        logger.info("Sleep interrupted");
-        notify();
+    public boolean isTemporary() {
+        return StorjUtil.isTemporaryError(code);
     }
 
 }
@@ -16,20 +16,116 @@
  */
 package io.goobox.sync.storj;
 
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class StorjExecutorService extends ThreadPoolExecutor {
+/**
+ * Thread pool for the file tasks of one {@link Workload}. With virtual threads
+ * each task is started on a new virtual thread instead of a pooled one.
+ */
+public class StorjExecutorService extends ThreadPoolExecutor implements StorjExecutorServiceMXBean {
 
     private static final Logger logger = LoggerFactory.getLogger(StorjExecutorService.class);
 
-    public StorjExecutorService(int processors, LinkedBlockingQueue<Runnable> linkedBlockingQueue) {
-        super(processors, processors, 60, TimeUnit.SECONDS, linkedBlockingQueue);
-        logger.info("started StorjExecutorService with {} threads", processors);
+    private final Workload workload;
+    private final int concurrency;
+    private final TaskQueue tasks;
+    private final boolean virtualThreads;
+
+    public StorjExecutorService(Workload workload, int concurrency, TaskQueue tasks) {
+        this(workload, concurrency, tasks, false);
+    }
+
+    /**
+     * @param virtualThreads
+     *            start each task on a new virtual thread; falls back to the
+     *            thread pool if the JVM does not support virtual threads
+     */
+    public StorjExecutorService(Workload workload, int concurrency, TaskQueue tasks, boolean virtualThreads) {
+        this(workload, concurrency, tasks, virtualThreads ? VirtualThreads.factory(workload.getId() + "-") : null);
+    }
+
+    private StorjExecutorService(Workload workload, int concurrency, TaskQueue tasks, ThreadFactory virtual) {
+        // a virtual thread is never reused, so there is nothing to keep alive
+        super((virtual != null) ? 0 : workload.getThreads(concurrency),
+                (virtual != null) ? Integer.MAX_VALUE : workload.getThreads(concurrency),
+                (virtual != null) ? 0 : 60, TimeUnit.SECONDS,
+                (virtual != null) ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(),
+                (virtual != null) ? virtual : threadFactory(workload));
+        this.workload = workload;
+        this.concurrency = concurrency;
+        this.tasks = tasks;
+        this.virtualThreads = virtual != null;
+        if (virtualThreads) {
+            logger.info("started StorjExecutorService for {} with virtual threads for up to {} tasks",
+                    workload.getId(), concurrency);
+        } else {
+            logger.info("started StorjExecutorService for {} with {} threads for up to {} tasks", workload.getId(),
+                    getMaximumPoolSize(), concurrency);
+        }
+    }
+
+    /**
+     * Publishes the gauges of the executor as a platform MXBean.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("io.goobox.sync.storj:type=StorjExecutorService,workload=" + workload.getId()));
+        } catch (JMException e) {
+            logger.warn("Cannot register the gauges of the {} executor", workload.getId(), e);
+        }
+    }
+
+    @Override
+    public String getWorkload() {
+        return workload.getId();
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public int getThreads() {
+        return virtualThreads ? getPoolSize() : getMaximumPoolSize();
+    }
+
+    @Override
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return tasks.getQueueDepth(workload);
+    }
+
+    @Override
+    public int getRunning() {
+        return tasks.getRunning(workload);
+    }
+
+    @Override
+    public double getUtilization() {
+        return (double) getRunning() / getConcurrency();
+    }
+
+    private static ThreadFactory threadFactory(final Workload workload) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable, workload.getId() + "-" + count.incrementAndGet());
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+/**
+ * Gauges of a {@link StorjExecutorService}, published as a platform MXBean.
+ */
+public interface StorjExecutorServiceMXBean {
+
+    String getWorkload();
+
+    boolean isVirtualThreads();
+
+    /**
+     * Returns the size of the thread pool, or the number of live virtual
+     * threads.
+     */
+    int getThreads();
+
+    /**
+     * Returns the maximum number of tasks of the workload running at the same
+     * time. Async tasks do not hold a thread while running.
+     */
+    int getConcurrency();
+
+    /**
+     * Returns the number of tasks of the workload waiting in the task queue.
+     */
+    int getQueueDepth();
+
+    int getRunning();
+
+    /**
+     * Returns the running tasks as a fraction of the concurrency.
+     */
+    double getUtilization();
+
+}
@@ -20,33 +20,117 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
 
 import io.goobox.sync.common.Utils;
+import io.storj.libstorj.File;
 import io.storj.libstorj.Storj;
 
 public class StorjUtil {
 
+    // 64-bit FNV-1a
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Parses a timestamp in the ISO-8601 UTC format used by the bridge, e.g.
+     * <code>2017-11-09T17:51:14.123Z</code>, into milliseconds since the
+     * epoch. Parses in place without allocating.
+     */
     public static long getTime(String storjTimestamp) throws ParseException {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-        Date date = sdf.parse(storjTimestamp);
-        return date.getTime();
+        String s = storjTimestamp;
+        if (s == null || s.length() < 20
+                || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(s.length() - 1) != 'Z') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+
+        // optional fraction of a second, only the milliseconds are kept
+        int millis = 0;
+        int end = s.length() - 1;
+        if (end > 19) {
+            if (s.charAt(19) != '.' || end == 20) {
+                throw new ParseException("Unparseable date: \"" + s + "\"", 19);
+            }
+            int scale = 100;
+            for (int i = 20; i < end; i++) {
+                int digit = digit(s, i);
+                millis += digit * scale;
+                scale /= 10;
+            }
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
     }
 
-    public static Path getStorjPath(Path path) {
-        return App.getInstance().getSyncDir().relativize(path);
+    private static int digits(String s, int start, int count) throws ParseException {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + digit(s, i);
+        }
+        return value;
+    }
+
+    private static int digit(String s, int index) throws ParseException {
+        char c = s.charAt(index);
+        if (c < '0' || c > '9') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", index);
+        }
+        return c - '0';
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a date in the proleptic
+     * Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        // shift the year to start in March, so the leap day is the last day
+        int y = (month <= 2) ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns a fingerprint of a cloud listing from the file ids and created
+     * timestamps. It does not depend on the order of the files.
+     */
+    public static String getFingerprint(File[] files) {
+        long sum = 0;
+        long xor = 0;
+        for (File file : files) {
+            long hash = hash(hash(FNV_OFFSET, file.getId()), file.getCreated());
+            sum += hash;
+            xor ^= hash;
+        }
+        return files.length + "-" + Long.toHexString(sum) + "-" + Long.toHexString(xor);
     }
 
-    public static String getStorjName(Path path) {
-        String name = getStorjPath(path).toString();
-        name = name.replace('\\', '/');
-        if (Files.isDirectory(path)) {
-            name += "/";
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
         }
-        return name;
+        // separator, so "ab" + "c" differs from "a" + "bc"
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    public static Path getStorjPath(Path path) {
+        return App.getInstance().getSyncDir().relativize(path);
     }
 
     public static boolean isTemporaryError(int code) {
@@ -89,4 +173,8 @@ public class StorjUtil {
         return false;
     }
 
+    public static boolean isExcluded(LocalFile file) {
+        return Utils.isExcluded(file.getPath()) || file.getSize() == 0;
+    }
+
 }
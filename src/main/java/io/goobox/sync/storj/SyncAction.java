@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import io.goobox.sync.storj.db.SyncSnapshot;
+
+/**
+ * A state change planned by the {@link SyncPlanner} for one name. The cloud
+ * file and the local file are set as the matching {@link SyncSnapshot} method
+ * needs them.
+ */
+public class SyncAction {
+
+    public enum Type {
+        SET_SYNCED(false),
+        ADD_FOR_DOWNLOAD(true),
+        ADD_FOR_UPLOAD(true),
+        SET_DOWNLOAD_FAILED(false),
+        SET_UPLOAD_FAILED(false),
+        SET_FOR_LOCAL_DELETE(false),
+        SET_FOR_CLOUD_DELETE(true),
+        ADD_FOR_LOCAL_CREATE_DIR(false),
+        ADD_FOR_CLOUD_CREATE_DIR(true),
+        SET_CONFLICT(false),
+        REMOVE(false);
+
+        private final boolean synchronizing;
+
+        private Type(boolean synchronizing) {
+            this.synchronizing = synchronizing;
+        }
+
+        /**
+         * Returns if the action puts the sync in synchronizing state.
+         */
+        public boolean isSynchronizing() {
+            return synchronizing;
+        }
+    }
+
+    private final Type type;
+    private final String name;
+    private final CloudFile file;
+    private final LocalFile localFile;
+
+    public SyncAction(Type type, String name, CloudFile file, LocalFile localFile) {
+        this.type = type;
+        this.name = name;
+        this.file = file;
+        this.localFile = localFile;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CloudFile getFile() {
+        return file;
+    }
+
+    public LocalFile getLocalFile() {
+        return localFile;
+    }
+
+    public void applyTo(SyncSnapshot snapshot) {
+        switch (type) {
+        case SET_SYNCED:
+            snapshot.setSynced(file, localFile);
+            break;
+        case ADD_FOR_DOWNLOAD:
+            if (localFile == null) {
+                snapshot.addForDownload(file);
+            } else {
+                snapshot.addForDownload(file, localFile);
+            }
+            break;
+        case ADD_FOR_UPLOAD:
+            if (file == null) {
+                snapshot.addForUpload(localFile);
+            } else {
+                snapshot.addForUpload(file, localFile);
+            }
+            break;
+        case SET_DOWNLOAD_FAILED:
+            snapshot.setDownloadFailed(file);
+            break;
+        case SET_UPLOAD_FAILED:
+            snapshot.setUploadFailed(localFile);
+            break;
+        case SET_FOR_LOCAL_DELETE:
+            snapshot.setForLocalDelete(localFile);
+            break;
+        case SET_FOR_CLOUD_DELETE:
+            snapshot.setForCloudDelete(file);
+            break;
+        case ADD_FOR_LOCAL_CREATE_DIR:
+            snapshot.addForLocalCreateDir(file);
+            break;
+        case ADD_FOR_CLOUD_CREATE_DIR:
+            snapshot.addForCloudCreateDir(localFile);
+            break;
+        case SET_CONFLICT:
+            snapshot.setConflict(file, localFile);
+            break;
+        case REMOVE:
+            snapshot.remove(name);
+            break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.goobox.sync.storj.db.DB;
+import io.goobox.sync.storj.db.SyncFile;
+import io.goobox.sync.storj.db.SyncSnapshot;
+import io.goobox.sync.storj.db.SyncState;
+import io.storj.libstorj.Bucket;
+
+/**
+ * Applies planned actions to a {@link SyncSnapshot} and creates their tasks.
+ * The state changes are written to the sync DB and the tasks are queued in
+ * batches, so no task runs before its state change is in the DB.
+ */
+public class SyncApplier {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncApplier.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final Bucket bucket;
+    private final TaskQueue tasks;
+    private final SyncSnapshot snapshot;
+
+    private final List<Runnable> newTasks = new ArrayList<>();
+    private int pending;
+
+    public SyncApplier(Bucket bucket, TaskQueue tasks, SyncSnapshot snapshot) {
+        this.bucket = bucket;
+        this.tasks = tasks;
+        this.snapshot = snapshot;
+    }
+
+    public void apply(List<SyncAction> actions) {
+        for (SyncAction action : actions) {
+            apply(action);
+        }
+    }
+
+    public void apply(SyncAction action) {
+        if (tasks.isInFlight(action.getName())) {
+            // the running task updates the DB when done, then the file is checked again
+            logger.debug("Skipping {} - a task for it is running", action.getName());
+            markDirty(action);
+            return;
+        }
+        if (tasks.isFinishedSinceListing(action.getName())) {
+            // the action may be planned from a listing older than the DB record - leave it to the next check
+            logger.debug("Skipping {} - a task for it finished after the listing", action.getName());
+            markDirty(action);
+            return;
+        }
+        if (isQueued(action)) {
+            // checks run while a backlog drains - do not write and replace the same decision again
+            logger.debug("Skipping {} - a task for it is queued", action.getName());
+            return;
+        }
+
+        action.applyTo(snapshot);
+
+        Runnable task = createTask(action);
+        if (task != null) {
+            newTasks.add(task);
+        } else {
+            // nothing to do for the file anymore, e.g. a file to upload was deleted
+            tasks.cancel(action.getName());
+        }
+
+        if (++pending >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        DB.apply(snapshot);
+        tasks.addAll(newTasks);
+        newTasks.clear();
+        pending = 0;
+    }
+
+    /**
+     * Puts the file back to the changed paths. Its file events were drained
+     * by this check, so without them the next check would take a local edit
+     * made during the transfer as no change.
+     */
+    private void markDirty(SyncAction action) {
+        Path path = (action.getLocalFile() != null) ? action.getLocalFile().getPath()
+                : App.getInstance().getSyncDir().resolve(action.getName());
+        App.getInstance().getFileWatcher().markDirty(path);
+    }
+
+    /**
+     * Checks if a task is queued for the file and the action would not change
+     * its record, so the queued task already carries out the action.
+     */
+    private boolean isQueued(SyncAction action) {
+        SyncState state = getState(action.getType());
+        if (state == null || !tasks.isPending(action.getName())) {
+            return false;
+        }
+
+        SyncFile syncFile = snapshot.get(action.getName());
+        if (syncFile == null || syncFile.getState() != state) {
+            return false;
+        }
+        CloudFile file = action.getFile();
+        if (file != null && !file.getId().equals(syncFile.getStorjId())) {
+            return false;
+        }
+        LocalFile localFile = action.getLocalFile();
+        return localFile == null || (localFile.getLastModified() == syncFile.getLocalModifiedTime()
+                && localFile.getSize() == syncFile.getLocalSize());
+    }
+
+    /**
+     * Returns the state the action sets for a file with a task, or
+     * <code>null</code> if the action creates no task.
+     */
+    private static SyncState getState(SyncAction.Type type) {
+        switch (type) {
+        case ADD_FOR_DOWNLOAD:
+            return SyncState.FOR_DOWNLOAD;
+        case ADD_FOR_UPLOAD:
+            return SyncState.FOR_UPLOAD;
+        case SET_FOR_CLOUD_DELETE:
+            return SyncState.FOR_CLOUD_DELETE;
+        case SET_FOR_LOCAL_DELETE:
+            return SyncState.FOR_LOCAL_DELETE;
+        case ADD_FOR_LOCAL_CREATE_DIR:
+            return SyncState.FOR_LOCAL_CREATE_DIR;
+        case ADD_FOR_CLOUD_CREATE_DIR:
+            return SyncState.FOR_CLOUD_CREATE_DIR;
+        default:
+            return null;
+        }
+    }
+
+    private Runnable createTask(SyncAction action) {
+        switch (action.getType()) {
+        case ADD_FOR_DOWNLOAD:
+            return new DownloadFileTask(bucket, action.getFile());
+        case ADD_FOR_UPLOAD:
+            return new UploadFileTask(bucket, action.getLocalFile());
+        case SET_FOR_CLOUD_DELETE:
+            return new DeleteCloudFileTask(bucket, action.getFile().getStorjFile());
+        case SET_FOR_LOCAL_DELETE:
+            return new DeleteLocalFileTask(action.getLocalFile().getPath());
+        case ADD_FOR_LOCAL_CREATE_DIR:
+            return new CreateLocalDirTask(action.getFile().getStorjFile());
+        case ADD_FOR_CLOUD_CREATE_DIR:
+            return new CreateCloudDirTask(bucket, action.getLocalFile().getPath());
+        default:
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the cloud files and local files seen in one sync check, keyed by
+ * the name used in the sync DB (Storj name without trailing slash).
+ */
+public class SyncIndex {
+
+    // cloud files with the same name are kept in listing order
+    private final Map<String, List<CloudFile>> cloudFiles;
+    private final Map<String, LocalFile> localFiles;
+
+    public SyncIndex(CloudFile[] files, List<LocalFile> locals) {
+        cloudFiles = new LinkedHashMap<>(capacity(files.length));
+        for (CloudFile file : files) {
+            String name = file.getName();
+            List<CloudFile> sameName = cloudFiles.get(name);
+            if (sameName == null) {
+                cloudFiles.put(name, Collections.singletonList(file));
+            } else {
+                if (sameName.size() == 1) {
+                    sameName = new ArrayList<>(sameName);
+                    cloudFiles.put(name, sameName);
+                }
+                sameName.add(file);
+            }
+        }
+
+        // keep the walk order for processing the local-only paths
+        localFiles = new LinkedHashMap<>(capacity(locals.size()));
+        for (LocalFile local : locals) {
+            localFiles.putIfAbsent(local.getName(), local);
+        }
+    }
+
+    public CloudFile getCloudFile(String name) {
+        List<CloudFile> files = cloudFiles.get(name);
+        return (files == null) ? null : files.get(0);
+    }
+
+    public List<CloudFile> getCloudFiles(String name) {
+        List<CloudFile> files = cloudFiles.get(name);
+        return (files == null) ? Collections.<CloudFile> emptyList() : files;
+    }
+
+    /**
+     * Returns the names of the cloud files in listing order.
+     */
+    public Collection<String> getCloudNames() {
+        return cloudFiles.keySet();
+    }
+
+    public LocalFile getLocalFile(String name) {
+        return localFiles.get(name);
+    }
+
+    public boolean contains(String name) {
+        return cloudFiles.containsKey(name) || localFiles.containsKey(name);
+    }
+
+    public Collection<LocalFile> getLocalFiles() {
+        return localFiles.values();
+    }
+
+    private static int capacity(int size) {
+        return Math.max(16, (int) (size / 0.75f) + 1);
+    }
+
+}
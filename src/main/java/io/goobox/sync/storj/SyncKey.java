@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.nio.file.Path;
+
+import io.goobox.sync.storj.db.DB;
+import io.storj.libstorj.File;
+
+/**
+ * Identifies a file or directory in the sync dir and in the cloud. Holds the
+ * name used in the sync DB and whether it is a directory, so the local path
+ * and the Storj name are derived without touching the file system.
+ */
+public final class SyncKey {
+
+    private final String name;
+    private final boolean directory;
+    private final int hash;
+
+    private SyncKey(String name, boolean directory) {
+        this.name = name;
+        this.directory = directory;
+        this.hash = 31 * name.hashCode() + (directory ? 1 : 0);
+    }
+
+    /**
+     * Returns the key of a path in the sync dir. The caller tells if it is a
+     * directory, as known from the walk or the file event.
+     */
+    public static SyncKey of(Path path, boolean directory) {
+        return new SyncKey(DB.getName(path), directory);
+    }
+
+    /**
+     * Returns the key of a Storj name. Directory names end with a slash.
+     */
+    public static SyncKey of(String storjName) {
+        int end = storjName.length();
+        while (end > 0 && storjName.charAt(end - 1) == '/') {
+            end--;
+        }
+        boolean directory = end < storjName.length();
+        return new SyncKey(directory ? storjName.substring(0, end) : storjName, directory);
+    }
+
+    public static SyncKey of(File file) {
+        return of(file.getName());
+    }
+
+    /**
+     * Returns the name used in the sync DB, i.e. the Storj name without
+     * trailing slash.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getStorjName() {
+        return directory ? name + "/" : name;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SyncKey)) {
+            return false;
+        }
+        SyncKey other = (SyncKey) obj;
+        return hash == other.hash && directory == other.directory && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return getStorjName();
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The actions planned by the {@link SyncPlanner} for one sync check, and the
+ * dirs with files that will not be in sync after them.
+ */
+public class SyncPlan {
+
+    private final List<SyncAction> actions = new ArrayList<>();
+    private final Set<String> uncleanDirs = new HashSet<>();
+
+    public List<SyncAction> getActions() {
+        return actions;
+    }
+
+    public Set<String> getUncleanDirs() {
+        return uncleanDirs;
+    }
+
+    public boolean isSynchronizing() {
+        for (SyncAction action : actions) {
+            if (action.getType().isSynchronizing()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void addActions(List<SyncAction> actions) {
+        this.actions.addAll(actions);
+    }
+
+    void setUnclean(String fileName) {
+        String dir = fileName;
+        do {
+            dir = DirDigests.getParent(dir);
+            if (!uncleanDirs.add(dir)) {
+                // the ancestors are already marked
+                return;
+            }
+        } while (!dir.equals(DirDigests.ROOT));
+    }
+
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.goobox.sync.storj.SyncAction.Type;
+import io.goobox.sync.storj.db.SyncFile;
+import io.goobox.sync.storj.db.SyncSnapshot;
+import io.goobox.sync.storj.db.SyncState;
+
+/**
+ * Decides what to do with each name found in the cloud, in the sync dir or in
+ * the sync DB. Planning does no I/O and does not change the records it is
+ * given, so the names are planned in parallel. The local files with a new
+ * timestamp are hashed by the caller beforehand, see
+ * {@link #getFilesToHash(SyncIndex, SyncSnapshot)}, to tell a real change from
+ * a touch.
+ */
+public class SyncPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncPlanner.class);
+
+    // local paths changed since the last check, null if all may have changed
+    private final DirtyPaths dirtyPaths;
+    // dirs with the same digest as when last found in sync
+    private final Set<String> unchangedDirs;
+
+    // failed transfers from before this time are tried again
+    private final long retryFailedBefore;
+
+    public SyncPlanner(DirtyPaths dirtyPaths, Set<String> unchangedDirs) {
+        this.dirtyPaths = dirtyPaths;
+        this.unchangedDirs = unchangedDirs;
+        this.retryFailedBefore = System.currentTimeMillis() - RetryPolicy.getDefault().getFailedRetryDelay();
+    }
+
+    public SyncPlan plan(final SyncIndex index, final SyncSnapshot records) {
+        final List<String> names = new ArrayList<>();
+
+        // records of files deleted both locally and in the cloud first
+        for (SyncFile syncFile : records.all()) {
+            if (!index.contains(syncFile.getName())) {
+                names.add(syncFile.getName());
+            }
+        }
+        names.addAll(index.getCloudNames());
+        for (LocalFile localFile : index.getLocalFiles()) {
+            if (index.getCloudFile(localFile.getName()) == null) {
+                names.add(localFile.getName());
+            }
+        }
+
+        List<Result> results = names.parallelStream()
+                .map(name -> plan(name, index.getCloudFiles(name), index.getLocalFile(name), records.get(name)))
+                .collect(Collectors.toList());
+
+        SyncPlan plan = new SyncPlan();
+        for (int i = 0; i < names.size(); i++) {
+            Result result = results.get(i);
+            plan.addActions(result.actions);
+            if (!result.skipped && !result.inSync) {
+                plan.setUnclean(names.get(i));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the local files whose hash the plan needs: files with a new
+     * timestamp, but maybe still the content last synced, and files of the
+     * same size as a cloud file with no hash to compare them with. Hash them
+     * with {@link ContentHashes#computeAll(java.util.Collection)} before
+     * planning, otherwise they are taken as changed.
+     */
+    public List<LocalFile> getFilesToHash(SyncIndex index, SyncSnapshot records) {
+        List<LocalFile> files = new ArrayList<>();
+        for (LocalFile localFile : index.getLocalFiles()) {
+            String name = localFile.getName();
+            if (needsHash(index.getCloudFile(name), localFile, records.get(name))) {
+                files.add(localFile);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Same as {@link #getFilesToHash(SyncIndex, SyncSnapshot)} for one name.
+     *
+     * @param cloudFile
+     *            the first cloud file with the name, or <code>null</code>
+     * @param localFile
+     *            the local file, or <code>null</code>
+     * @param syncFile
+     *            the sync DB record, or <code>null</code>
+     */
+    public boolean needsHash(CloudFile cloudFile, LocalFile localFile, SyncFile syncFile) {
+        if (localFile == null || localFile.isDirectory() || ContentHashes.getCached(localFile) != null) {
+            return false;
+        }
+        if (syncFile == null || syncFile.getLocalHash() == null) {
+            // a same-size twin may be resolved as a conflict, which keeps the hash
+            return cloudFile != null && !cloudFile.isDirectory() && cloudFile.getSize() == localFile.getSize()
+                    && (syncFile == null || syncFile.getState() == SyncState.FOR_DOWNLOAD
+                            || isTouched(syncFile, localFile));
+        }
+        return syncFile.getLocalSize() == localFile.getSize() && isTouched(syncFile, localFile);
+    }
+
+    /**
+     * Plans the actions for one name.
+     *
+     * @param cloudFiles
+     *            the cloud files with this name in listing order, may be empty
+     * @param localFile
+     *            the local file, or <code>null</code>
+     * @param syncFile
+     *            the sync DB record, or <code>null</code>
+     */
+    public List<SyncAction> planName(String name, List<CloudFile> cloudFiles, LocalFile localFile, SyncFile syncFile) {
+        return plan(name, cloudFiles, localFile, syncFile).actions;
+    }
+
+    private Result plan(String name, List<CloudFile> cloudFiles, LocalFile localFile, SyncFile syncFile) {
+        Result result = new Result();
+
+        if (cloudFiles.isEmpty() && localFile == null) {
+            // deleted both locally and in the cloud
+            if (syncFile != null) {
+                result.actions.add(new SyncAction(Type.REMOVE, name, null, null));
+            }
+            return result;
+        }
+
+        if (isUnchanged(name)) {
+            result.skipped = true;
+            return result;
+        }
+
+        if (cloudFiles.isEmpty()) {
+            planLocalFile(localFile, syncFile, result.actions);
+            return result;
+        }
+
+        // the state after the actions so far, if there are any
+        SyncSnapshot planned = null;
+
+        result.inSync = true;
+        for (CloudFile file : cloudFiles) {
+            SyncFile current = (planned == null) ? syncFile : planned.get(name);
+
+            int count = result.actions.size();
+            planCloudFile(file, localFile, current, result.actions);
+
+            if (result.actions.size() > count) {
+                if (planned == null) {
+                    planned = new SyncSnapshot();
+                    if (syncFile != null) {
+                        planned.add(new SyncFile(syncFile));
+                    }
+                }
+                for (SyncAction action : result.actions.subList(count, result.actions.size())) {
+                    action.applyTo(planned);
+                }
+                current = planned.get(name);
+            }
+
+            if (!isInSync(file, localFile, current)) {
+                result.inSync = false;
+            }
+
+            // only the first cloud file is matched with the local file
+            localFile = null;
+        }
+
+        return result;
+    }
+
+    private void planCloudFile(CloudFile file, LocalFile localFile, SyncFile syncFile, List<SyncAction> actions) {
+        // process only files encrypted with the current key
+        if (!file.isDecrypted()) {
+            return;
+        }
+
+        String name = file.getName();
+        try {
+            if (syncFile != null) {
+                boolean cloudChanged = cloudChanged(syncFile, file);
+                if (localFile == null) {
+                    if (cloudChanged || syncFile.getState() == SyncState.FOR_DOWNLOAD
+                            && syncFile.getLocalModifiedTime() == 0) {
+                        actions.add(new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, null));
+                    } else if (syncFile.getState() == SyncState.DOWNLOAD_FAILED) {
+                        if (syncFile.getLocalModifiedTime() == 0 && !isRetryDue(syncFile)) {
+                            actions.add(new SyncAction(Type.SET_DOWNLOAD_FAILED, name, file, null));
+                        } else {
+                            actions.add(new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, null));
+                        }
+                    } else {
+                        actions.add(new SyncAction(Type.SET_FOR_CLOUD_DELETE, name, file, null));
+                    }
+                } else {
+                    boolean localChanged = localChanged(syncFile, localFile);
+                    if (cloudChanged && localChanged || syncFile.getState() == SyncState.FOR_DOWNLOAD) {
+                        actions.add(resolveConflict(file, localFile, syncFile));
+                    } else if (cloudChanged) {
+                        actions.add(new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, localFile));
+                    } else if (localChanged) {
+                        actions.add(new SyncAction(Type.ADD_FOR_UPLOAD, name, file, localFile));
+                    } else if (syncFile.getState() == SyncState.SYNCED && isTouched(syncFile, localFile)) {
+                        // new timestamp, but same content - remember the timestamp
+                        actions.add(new SyncAction(Type.SET_SYNCED, name, file, localFile));
+                    } else if (syncFile.getState() == SyncState.DOWNLOAD_FAILED && isRetryDue(syncFile)) {
+                        actions.add(new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, localFile));
+                    } else if (syncFile.getState() == SyncState.UPLOAD_FAILED && isRetryDue(syncFile)) {
+                        actions.add(new SyncAction(Type.ADD_FOR_UPLOAD, name, file, localFile));
+                    } else {
+                        // no change - do nothing
+                    }
+                }
+            } else {
+                if (localFile == null) {
+                    if (file.isDirectory()) {
+                        actions.add(new SyncAction(Type.ADD_FOR_LOCAL_CREATE_DIR, name, file, null));
+                    } else {
+                        actions.add(new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, null));
+                    }
+                } else {
+                    actions.add(resolveConflict(file, localFile, null));
+                }
+            }
+        } catch (ParseException e) {
+            logger.error("Cannot parse timestamp", e);
+        }
+    }
+
+    private void planLocalFile(LocalFile localFile, SyncFile syncFile, List<SyncAction> actions) {
+        String name = localFile.getName();
+        if (syncFile != null) {
+            if (localChanged(syncFile, localFile)
+                    || syncFile.getState() == SyncState.FOR_UPLOAD && syncFile.getStorjCreatedTime() == 0) {
+                actions.add(new SyncAction(Type.ADD_FOR_UPLOAD, name, null, localFile));
+            } else if (syncFile.getState() == SyncState.UPLOAD_FAILED && syncFile.getStorjCreatedTime() == 0) {
+                if (isRetryDue(syncFile)) {
+                    actions.add(new SyncAction(Type.ADD_FOR_UPLOAD, name, null, localFile));
+                } else {
+                    actions.add(new SyncAction(Type.SET_UPLOAD_FAILED, name, null, localFile));
+                }
+            } else {
+                actions.add(new SyncAction(Type.SET_FOR_LOCAL_DELETE, name, null, localFile));
+            }
+        } else if (!StorjUtil.isExcluded(localFile)) {
+            if (localFile.isDirectory()) {
+                actions.add(new SyncAction(Type.ADD_FOR_CLOUD_CREATE_DIR, name, null, localFile));
+            } else {
+                actions.add(new SyncAction(Type.ADD_FOR_UPLOAD, name, null, localFile));
+            }
+        }
+    }
+
+    private SyncAction resolveConflict(CloudFile file, LocalFile localFile, SyncFile syncFile) throws ParseException {
+        String name = file.getName();
+        if (file.isDirectory() && localFile.isDirectory()) {
+            return new SyncAction(Type.SET_SYNCED, name, file, localFile);
+        } else if (syncFile != null && sameContent(syncFile, localFile)) {
+            // the local file is still the one last synced, so only the cloud file changed
+            return new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, localFile);
+        } else if (file.getSize() == localFile.getSize() && (syncFile == null || syncFile.getLocalHash() == null)) {
+            // Same size, but the cloud HMAC is of the encrypted content and there is
+            // no synced local hash to compare with, so nothing proves the content
+            // is the same. Keep both files and let the user decide. The local hash
+            // goes to the record, so a later change on either side is resolved as usual.
+            return new SyncAction(Type.SET_CONFLICT, name, file, localFile);
+        } else if (getCloudTimestamp(file) < localFile.getLastModified()) {
+            return new SyncAction(Type.ADD_FOR_UPLOAD, name, file, localFile);
+        } else {
+            return new SyncAction(Type.ADD_FOR_DOWNLOAD, name, file, localFile);
+        }
+    }
+
+    /**
+     * Checks if the file is in a dir that can be skipped, because nothing in
+     * it changed since all its files were last found in sync.
+     */
+    private boolean isUnchanged(String fileName) {
+        if (unchangedDirs.isEmpty()) {
+            return false;
+        }
+        String dir = fileName;
+        do {
+            dir = DirDigests.getParent(dir);
+            if (unchangedDirs.contains(dir)) {
+                return true;
+            }
+        } while (!dir.equals(DirDigests.ROOT));
+        return false;
+    }
+
+    /**
+     * Checks if the next check would find the file in sync again, if nothing
+     * changes in the meantime.
+     */
+    private boolean isInSync(CloudFile file, LocalFile localFile, SyncFile syncFile) {
+        if (localFile == null || !file.isDecrypted()) {
+            return false;
+        }
+
+        if (syncFile == null || syncFile.getState() != SyncState.SYNCED) {
+            return false;
+        }
+
+        if (file.isDirectory() || localFile.isDirectory()) {
+            return file.isDirectory() && localFile.isDirectory();
+        }
+
+        try {
+            return !cloudChanged(syncFile, file)
+                    && syncFile.getLocalModifiedTime() == localFile.getLastModified();
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the transfer failed long enough ago to be tried again.
+     */
+    private boolean isRetryDue(SyncFile syncFile) {
+        return syncFile.getFailedTime() <= retryFailedBefore;
+    }
+
+    private boolean isDirty(LocalFile localFile) {
+        return dirtyPaths == null || dirtyPaths.contains(localFile.getPath());
+    }
+
+    private long getCloudTimestamp(CloudFile file) throws ParseException {
+        return file.getCreatedTime();
+    }
+
+    private boolean cloudChanged(SyncFile syncFile, CloudFile file) throws ParseException {
+        if (file.isDirectory()) {
+            return false;
+        }
+        if (syncFile.getStorjHmac() != null && file.getHMAC() != null) {
+            return !syncFile.getStorjHmac().equals(file.getHMAC());
+        }
+        return syncFile.getStorjCreatedTime() != getCloudTimestamp(file);
+    }
+
+    private boolean localChanged(SyncFile syncFile, LocalFile localFile) {
+        return isTouched(syncFile, localFile) && !sameContent(syncFile, localFile);
+    }
+
+    private boolean isTouched(SyncFile syncFile, LocalFile localFile) {
+        if (!isDirty(localFile)) {
+            // no file event for this path since the last check
+            return false;
+        }
+        return !localFile.isDirectory() && syncFile.getLocalModifiedTime() != localFile.getLastModified();
+    }
+
+    /**
+     * Checks if the local file has the content it had when the record was
+     * last updated. Only the cached hash is used, the file is not read.
+     */
+    private boolean sameContent(SyncFile syncFile, LocalFile localFile) {
+        return !localFile.isDirectory()
+                && syncFile.getLocalHash() != null
+                && syncFile.getLocalSize() == localFile.getSize()
+                && syncFile.getLocalHash().equals(ContentHashes.getCached(localFile));
+    }
+
+    private static class Result {
+
+        final List<SyncAction> actions = new ArrayList<>(1);
+        boolean inSync;
+        boolean skipped;
+
+    }
+
+}
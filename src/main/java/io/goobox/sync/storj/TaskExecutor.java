@@ -16,43 +16,93 @@
  */
 package io.goobox.sync.storj;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public class TaskExecutor extends Thread {
 
+    private static final Logger logger = LoggerFactory.getLogger(TaskExecutor.class);
+
     private TaskQueue tasks;
     private volatile Runnable currentTask;
-    private StorjExecutorService ses;
+    private Map<Workload, StorjExecutorService> executors;
+    private Map<Workload, ConcurrencyLimit> limits;
+    private CircuitBreaker breaker;
 
-    public TaskExecutor(TaskQueue tasks, StorjExecutorService ses) {
+    public TaskExecutor(TaskQueue tasks, Map<Workload, StorjExecutorService> executors,
+            Map<Workload, ConcurrencyLimit> limits, CircuitBreaker breaker) {
         this.tasks = tasks;
-        this.ses = ses;
+        this.executors = executors;
+        this.limits = limits;
+        this.breaker = breaker;
     }
 
     @Override
     public void run() {
         while (true) {
             try {
-                currentTask = tasks.take();
-                if ( currentTask instanceof CheckStateTask || currentTask instanceof SleepTask) {
-
-                    while( ses.getActiveCount() > 0) {
-                        Thread.sleep(1000);
-                    }
-
-                    currentTask.run();
+                // file tasks are left in the queue until a thread is free, so
+                // later tasks for the same file can still replace them
+                currentTask = tasks.takeNext(this::getMaxRunning);
+                if (currentTask instanceof FileTask) {
+                    final FileTask task = (FileTask) currentTask;
+                    executors.get(task.getWorkload()).submit(() -> start(task));
                 } else {
-                    ses.submit(currentTask);
+                    // checks run while file tasks are in progress
+                    currentTask.run();
                 }
-
-                currentTask = null;
             } catch (InterruptedException e) {
                 // nothing to do
+            } catch (RuntimeException e) {
+                // keep dispatching - this is the only thread doing it
+                logger.error("Task {} failed", currentTask, e);
+                if (currentTask instanceof CheckStateTask) {
+                    // the failed check did not queue the next one
+                    tasks.endCheck();
+                    tasks.add(new CheckStateTask(), App.getInstance().getPollInterval().getNextCheck());
+                }
+            } finally {
+                currentTask = null;
             }
         }
     }
 
-    public void interruptSleeping() {
-        if (currentTask instanceof SleepTask) {
-            ((SleepTask) currentTask).interrupt();
+    private int getMaxRunning(Workload workload) {
+        if (workload.isCloud() && !breaker.isClosed()) {
+            // offline - keep the cloud tasks queued until the check finds the bridge again
+            return 0;
+        }
+        ConcurrencyLimit limit = limits.get(workload);
+        return (limit != null) ? limit.getLimit() : executors.get(workload).getConcurrency();
+    }
+
+    private void start(final FileTask task) {
+        CompletableFuture<Void> done;
+        try {
+            done = task.start();
+        } catch (RuntimeException e) {
+            logger.error("Failed starting task for {}", task.getName(), e);
+            onFinished(task);
+            return;
+        }
+
+        // the thread is free again while the task waits for the network
+        done.whenComplete((result, e) -> {
+            if (e != null) {
+                logger.error("Task for {} failed", task.getName(), e);
+            }
+            onFinished(task);
+        });
+    }
+
+    private void onFinished(Runnable task) {
+        if (tasks.finished(task)) {
+            // a change was deferred for this file, or all tasks are done -
+            // bring the next check forward
+            tasks.add(new CheckStateTask(), App.getInstance().getPollInterval().getEarliestCheck());
         }
     }
 
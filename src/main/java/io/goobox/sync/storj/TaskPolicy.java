@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides the order in which the queued tasks run.
+ * <p>
+ * Each task gets a delay when it is queued and the task queue runs the tasks
+ * in the order of their queue time plus delay. The delay is at most
+ * {@link #MAX_DELAY}, so a task never waits longer than that behind tasks
+ * queued after it.
+ * </p>
+ * <p>
+ * Except for {@link #FIFO}, tasks that change only metadata get no delay and
+ * run before the transfers.
+ * </p>
+ */
+public enum TaskPolicy {
+
+    /**
+     * Run the tasks in the order they were queued.
+     */
+    FIFO {
+        @Override
+        long getTransferDelay(FileTask task) {
+            return 0;
+        }
+    },
+
+    /**
+     * Run the smaller transfers first. The delay is the time the transfer
+     * would take at {@link #NOMINAL_RATE}.
+     */
+    SMALLEST_FIRST {
+        @Override
+        long getTransferDelay(FileTask task) {
+            return task.getTransferSize() / NOMINAL_RATE;
+        }
+    },
+
+    /**
+     * Run the transfers of the recently modified files first. The delay is the
+     * time since the last modification.
+     */
+    RECENTLY_MODIFIED_FIRST {
+        @Override
+        long getTransferDelay(FileTask task) {
+            long modified = task.getModifiedTime();
+            return (modified <= 0) ? MAX_DELAY : System.currentTimeMillis() - modified;
+        }
+    };
+
+    /**
+     * The policy used if none is given on the command line.
+     */
+    public static final TaskPolicy DEFAULT = SMALLEST_FIRST;
+
+    public static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(10);
+
+    // bytes per millisecond, 1 MB/s
+    static final long NOMINAL_RATE = 1000;
+
+    /**
+     * Returns the delay in milliseconds for the given task.
+     */
+    public long getDelay(Runnable task) {
+        if (this == FIFO || !(task instanceof FileTask)) {
+            return 0;
+        }
+        FileTask fileTask = (FileTask) task;
+        if (fileTask.getTransferSize() <= 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(MAX_DELAY, getTransferDelay(fileTask)));
+    }
+
+    abstract long getTransferDelay(FileTask task);
+
+    /**
+     * Parses a policy name as used on the command line, e.g. "smallest-first".
+     *
+     * @throws IllegalArgumentException
+     *             if there is no such policy
+     */
+    public static TaskPolicy parse(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+}
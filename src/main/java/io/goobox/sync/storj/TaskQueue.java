@@ -16,22 +16,828 @@
  */
 package io.goobox.sync.storj;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
 
-@SuppressWarnings("serial")
-public class TaskQueue extends LinkedBlockingQueue<Runnable> {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of the sync tasks, ordered by a {@link TaskPolicy}.
+ * <p>
+ * At most one {@link CheckStateTask} is queued at a time. Also at most one
+ * {@link FileTask} is queued per file: a task added for a file that already
+ * has a pending task replaces it and keeps its place in the queue. The later
+ * task comes from a later sync check, which has already taken the earlier
+ * decision into account, so only the last decision needs to run. When the
+ * later check finds nothing to do for the file, the queued task is
+ * {@link #cancel(String) cancelled}.
+ * </p>
+ * <p>
+ * Tasks other than file tasks, like {@link CheckStateTask}, run after all
+ * tasks queued before them, and not before the time they were
+ * {@link #add(Runnable, long) added for}. The check waits for its time in the
+ * queue, so the file tasks that become ready meanwhile are still taken.
+ * </p>
+ * <p>
+ * The queue also keeps track of the file tasks taken for execution with
+ * {@link #takeNext(int)} until they are {@link #finished(Runnable) finished}.
+ * A task added for a file with a running task is dropped, and the file is
+ * checked again after the running task finishes.
+ * </p>
+ * <p>
+ * File tasks wait for the tasks they depend on: a task that creates a file or
+ * dir waits for the queued or running task that creates its parent dir, and a
+ * delete waits for all queued or running tasks for files inside the deleted
+ * dir. Tasks in independent dirs can run in parallel.
+ * </p>
+ * <p>
+ * The file tasks are counted per {@link Workload}, so each workload can be
+ * limited to the concurrency of its own executor.
+ * </p>
+ */
+public class TaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TaskQueue.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // signaled when a task is added or a running task finishes
+    private final Condition changed = lock.newCondition();
+
+    private final TaskPolicy policy;
+
+    // file tasks that do not wait for other tasks, per workload
+    private final Map<Workload, PriorityQueue<Entry>> ready = new EnumMap<>(Workload.class);
+    private final Deque<Entry> otherTasks = new ArrayDeque<>();
+    // file name -> its entry in the queue
+    private final Map<String, Entry> pending = new HashMap<>();
+    // dir name -> queued and running entries of the files inside it
+    private final Map<String, Set<Entry>> inside = new HashMap<>();
+    private int waiting;
+    // queued file tasks per workload, including the waiting ones
+    private final int[] queued = new int[Workload.values().length];
+    private boolean checkQueued;
+    private long seq;
+    // the latest run time of the queued tasks
+    private long lastRunTime = Long.MIN_VALUE;
+
+    // file name -> its entry while the task is running
+    private final Map<String, Entry> inFlight = new HashMap<>();
+    private final Set<String> deferred = new HashSet<>();
+    private final int[] running = new int[Workload.values().length];
+    private int totalRunning;
+    // names of the files whose tasks finished since the running check listed
+    // the cloud files, null while no check is running
+    private Set<String> finishedSinceListing;
+
+    public TaskQueue() {
+        this(TaskPolicy.FIFO);
+    }
+
+    public TaskQueue(TaskPolicy policy) {
+        this.policy = policy;
+        for (Workload workload : Workload.values()) {
+            ready.put(workload, new PriorityQueue<Entry>());
+        }
+    }
+
+    public TaskPolicy getPolicy() {
+        return policy;
+    }
 
     @Override
     public boolean add(Runnable task) {
-        if (task instanceof CheckStateTask) {
-            // don't add another check state task if the queue already contains one
-            for (Runnable t : this) {
-                if (t instanceof CheckStateTask) {
+        // a rejected duplicate is not an error
+        return offer(task);
+    }
+
+    /**
+     * Adds a task other than a file task that {@link #takeNext(ToIntFunction)}
+     * does not take before the given time, e.g. a check for changes that must
+     * keep the minimum interval after the previous one. The file tasks queued
+     * after it are taken meanwhile. If a check is already queued, it is taken
+     * no later than the given time.
+     *
+     * @param notBefore
+     *            the earliest time in milliseconds as returned by
+     *            {@link System#currentTimeMillis()}
+     */
+    public boolean add(Runnable task, long notBefore) {
+        lock.lock();
+        try {
+            if (!offer(task)) {
+                for (Entry entry : otherTasks) {
+                    if (entry.task instanceof CheckStateTask && entry.notBefore > notBefore) {
+                        entry.notBefore = notBefore;
+                        changed.signalAll();
+                    }
+                }
+                return false;
+            }
+            Entry entry = otherTasks.peekLast();
+            if (entry != null && entry.task == task) {
+                entry.notBefore = notBefore;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+
+        lock.lock();
+        try {
+            if (task instanceof CheckStateTask) {
+                if (checkQueued) {
+                    return false;
+                }
+                checkQueued = true;
+            }
+
+            String name = (task instanceof FileTask) ? ((FileTask) task).getName() : null;
+            Entry replaced = null;
+            if (name != null) {
+                if (inFlight.containsKey(name)) {
+                    logger.debug("Deferring {} for {} until the running task finishes",
+                            task.getClass().getSimpleName(), name);
+                    deferred.add(name);
+                    return true;
+                }
+
+                replaced = pending.get(name);
+                if (replaced != null) {
+                    logger.debug("Replacing queued {} for {} with {}", replaced.task.getClass().getSimpleName(),
+                            name, task.getClass().getSimpleName());
+                    if (createsDir(replaced.task) == createsDir(task) && deletes(replaced.task) == deletes(task)) {
+                        replaced.task = task;
+                        setWorkload(replaced, ((FileTask) task).getWorkload());
+                        return true;
+                    }
+                    // the task depends on other tasks - queue it anew in the same place
+                    cancel(replaced);
+                }
+            }
+
+            Entry entry;
+            if (replaced != null) {
+                entry = new Entry(name, task, replaced.runTime, replaced.seq);
+            } else {
+                long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+                long runTime = (task instanceof FileTask) ? now + policy.getDelay(task) : Math.max(now, lastRunTime);
+                lastRunTime = Math.max(lastRunTime, runTime);
+                entry = new Entry(name, task, runTime, seq++);
+            }
+            if (name != null) {
+                addDependencies(entry);
+                pending.put(name, entry);
+                index(entry);
+            }
+
+            if (!(task instanceof FileTask)) {
+                otherTasks.add(entry);
+            } else {
+                entry.workload = ((FileTask) task).getWorkload();
+                queued[entry.workload.ordinal()]++;
+                if (entry.waitingFor == 0) {
+                    ready.get(entry.workload).add(entry);
+                } else {
+                    waiting++;
+                }
+            }
+            changed.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        // never full
+        return offer(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return remove(head());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyQueue()) {
+                changed.await();
+            }
+            return remove(head());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (isEmptyQueue()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return remove(head());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next task for execution. A file task is taken only while
+     * fewer than the given number of file tasks of its workload are running,
+     * otherwise the next task of another workload or the next other task is
+     * taken, so checks for changes keep running while all workloads are at
+     * their limit. The file tasks taken are running until they are
+     * {@link #finished(Runnable) finished}. Other tasks wait for the time
+     * they were {@link #add(Runnable, long) added for}, without holding up
+     * the file tasks.
+     */
+    public Runnable takeNext(ToIntFunction<Workload> maxRunning) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Entry entry = otherTasks.peek();
+                long delay = 0;
+                if (entry != null && entry.notBefore > 0) {
+                    delay = entry.notBefore - System.currentTimeMillis();
+                    if (delay > 0) {
+                        entry = null;
+                    }
+                }
+                for (Workload workload : Workload.values()) {
+                    Entry head = ready.get(workload).peek();
+                    if (head != null && running[workload.ordinal()] < maxRunning.applyAsInt(workload)
+                            && (entry == null || head.compareTo(entry) < 0)) {
+                        entry = head;
+                    }
+                }
+
+                if (entry != null) {
+                    if (entry.task instanceof FileTask) {
+                        running[entry.workload.ordinal()]++;
+                        totalRunning++;
+                        if (entry.name != null) {
+                            inFlight.put(entry.name, entry);
+                        }
+                    }
+                    return dequeue(entry);
+                }
+                if (delay > 0) {
+                    changed.await(delay, TimeUnit.MILLISECONDS);
+                } else {
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Same as {@link #takeNext(ToIntFunction)} with the same limit for all
+     * workloads.
+     */
+    public Runnable takeNext(int maxRunning) throws InterruptedException {
+        return takeNext(workload -> maxRunning);
+    }
+
+    /**
+     * Marks a task taken with {@link #takeNext(int)} as finished.
+     *
+     * @return <code>true</code> if the file of the task needs to be checked
+     *         again, or if this was the last running task
+     */
+    public boolean finished(Runnable task) {
+        lock.lock();
+        try {
+            running[((FileTask) task).getWorkload().ordinal()]--;
+            totalRunning--;
+            boolean recheck = false;
+            String name = ((FileTask) task).getName();
+            if (name != null) {
+                Entry entry = inFlight.remove(name);
+                if (entry != null) {
+                    complete(entry);
+                }
+                recheck = deferred.remove(name);
+                if (finishedSinceListing != null) {
+                    finishedSinceListing.add(name);
+                }
+            }
+            changed.signalAll();
+            return recheck || totalRunning == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the queued task for the file with the given name, e.g. when a
+     * later check found nothing to do for the file. A running task is not
+     * affected.
+     *
+     * @return <code>true</code> if a task was removed
+     */
+    public boolean cancel(String name) {
+        lock.lock();
+        try {
+            Entry entry = pending.get(name);
+            if (entry == null) {
+                return false;
+            }
+            logger.debug("Cancelling queued {} for {}", entry.task.getClass().getSimpleName(), name);
+            cancel(entry);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable)) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            if (o instanceof FileTask) {
+                Entry entry = pending.get(((FileTask) o).getName());
+                if (entry == null || entry.task != o) {
                     return false;
                 }
+                cancel(entry);
+                return true;
+            }
+
+            for (Iterator<Entry> it = otherTasks.iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (entry.task == o) {
+                    it.remove();
+                    if (o instanceof CheckStateTask) {
+                        checkQueued = false;
+                    }
+                    if (isEmptyQueue()) {
+                        lastRunTime = Long.MIN_VALUE;
+                    }
+                    return true;
+                }
             }
+            return false;
+        } finally {
+            lock.unlock();
         }
-        return super.add(task);
+    }
+
+    /**
+     * Checks if a task for the file with the given name is queued.
+     */
+    public boolean isPending(String name) {
+        lock.lock();
+        try {
+            return pending.containsKey(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if a task for the file with the given name is running.
+     */
+    public boolean isInFlight(String name) {
+        lock.lock();
+        try {
+            return inFlight.containsKey(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a check for changes before it lists the cloud files. Until
+     * {@link #endCheck()} the files whose tasks finish are remembered, as the
+     * listing and the DB may no longer agree on them.
+     */
+    public void startCheck() {
+        lock.lock();
+        try {
+            finishedSinceListing = new HashSet<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a check for changes when it is done.
+     */
+    public void endCheck() {
+        lock.lock();
+        try {
+            finishedSinceListing = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if a task for the file with the given name finished since the
+     * running check listed the cloud files.
+     */
+    public boolean isFinishedSinceListing(String name) {
+        lock.lock();
+        try {
+            return finishedSinceListing != null && finishedSinceListing.contains(name);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if there are no queued file tasks and no running ones.
+     */
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            return isEmptyQueue() && waiting == 0 && totalRunning == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of queued tasks of the workload.
+     */
+    public int getQueueDepth(Workload workload) {
+        lock.lock();
+        try {
+            return queued[workload.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of running tasks of the workload.
+     */
+    public int getRunning(Workload workload) {
+        lock.lock();
+        try {
+            return running[workload.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Entry entry = head();
+            return (entry == null) ? null : entry.task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            int size = otherTasks.size();
+            for (int count : queued) {
+                size += count;
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && !isEmptyQueue()) {
+                c.add(remove(head()));
+                count++;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the queued tasks in the order they will run. Its
+     * {@link Iterator#remove()} removes the task from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>(otherTasks);
+            for (PriorityQueue<Entry> entriesReady : ready.values()) {
+                entries.addAll(entriesReady);
+            }
+            for (Entry entry : pending.values()) {
+                if (entry.waitingFor > 0) {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries);
+            final List<Runnable> tasks = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                tasks.add(entry.task);
+            }
+            return new Iterator<Runnable>() {
+
+                private final Iterator<Runnable> snapshot = tasks.iterator();
+                private Runnable last;
+
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+
+                @Override
+                public Runnable next() {
+                    last = snapshot.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    TaskQueue.this.remove(last);
+                    last = null;
+                }
+
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the entry wait for the entry creating its nearest parent dir, or
+     * for the entries inside the dir it deletes.
+     */
+    private void addDependencies(Entry entry) {
+        if (deletes(entry.task)) {
+            Set<Entry> children = inside.get(entry.name);
+            if (children != null) {
+                for (Entry child : children) {
+                    child.addDependent(entry);
+                }
+            }
+            return;
+        }
+
+        for (int i = entry.name.lastIndexOf('/'); i > 0; i = entry.name.lastIndexOf('/', i - 1)) {
+            String dir = entry.name.substring(0, i);
+            Entry parent = pending.get(dir);
+            if (parent == null) {
+                parent = inFlight.get(dir);
+            }
+            if (parent != null && createsDir(parent.task)) {
+                parent.addDependent(entry);
+                return;
+            }
+        }
+    }
+
+    private void index(Entry entry) {
+        for (int i = entry.name.indexOf('/'); i > 0; i = entry.name.indexOf('/', i + 1)) {
+            inside.computeIfAbsent(entry.name.substring(0, i), k -> new HashSet<>()).add(entry);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        for (int i = entry.name.indexOf('/'); i > 0; i = entry.name.indexOf('/', i + 1)) {
+            String dir = entry.name.substring(0, i);
+            Set<Entry> entries = inside.get(dir);
+            if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+                inside.remove(dir);
+            }
+        }
+    }
+
+    /**
+     * Lets the entries waiting for this one run.
+     */
+    private void release(Entry entry) {
+        if (entry.dependents == null) {
+            return;
+        }
+        for (Entry dependent : entry.dependents) {
+            if (dependent.cancelled) {
+                continue;
+            }
+            if (--dependent.waitingFor == 0) {
+                waiting--;
+                ready.get(dependent.workload).add(dependent);
+            }
+        }
+        entry.dependents = null;
+        changed.signalAll();
+    }
+
+    private void complete(Entry entry) {
+        unindex(entry);
+        release(entry);
+    }
+
+    /**
+     * Removes a queued file task, which is neither run nor waited for.
+     */
+    private void cancel(Entry entry) {
+        entry.cancelled = true;
+        pending.remove(entry.name);
+        queued[entry.workload.ordinal()]--;
+        if (entry.waitingFor == 0) {
+            ready.get(entry.workload).remove(entry);
+        } else {
+            waiting--;
+        }
+        complete(entry);
+        if (isEmptyQueue()) {
+            lastRunTime = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Dequeues the entry without tracking it as running.
+     */
+    private Runnable remove(Entry entry) {
+        Runnable task = dequeue(entry);
+        if (entry != null && entry.name != null) {
+            complete(entry);
+        }
+        return task;
+    }
+
+    private void setWorkload(Entry entry, Workload workload) {
+        if (entry.workload == workload) {
+            return;
+        }
+        queued[entry.workload.ordinal()]--;
+        queued[workload.ordinal()]++;
+        if (entry.waitingFor == 0) {
+            ready.get(entry.workload).remove(entry);
+            ready.get(workload).add(entry);
+        }
+        entry.workload = workload;
+    }
+
+    private static boolean createsDir(Runnable task) {
+        return task instanceof CreateCloudDirTask || task instanceof CreateLocalDirTask;
+    }
+
+    private static boolean deletes(Runnable task) {
+        return task instanceof DeleteCloudFileTask || task instanceof DeleteLocalFileTask;
+    }
+
+    private boolean isEmptyQueue() {
+        if (!otherTasks.isEmpty()) {
+            return false;
+        }
+        for (PriorityQueue<Entry> entries : ready.values()) {
+            if (!entries.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Entry head() {
+        Entry head = otherTasks.peek();
+        for (PriorityQueue<Entry> entries : ready.values()) {
+            Entry entry = entries.peek();
+            if (entry != null && (head == null || entry.compareTo(head) < 0)) {
+                head = entry;
+            }
+        }
+        return head;
+    }
+
+    private Runnable dequeue(Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+
+        // the entry is always the head of its queue
+        if (entry.task instanceof FileTask) {
+            ready.get(entry.workload).poll();
+            queued[entry.workload.ordinal()]--;
+        } else {
+            otherTasks.poll();
+        }
+        if (entry.name != null) {
+            pending.remove(entry.name);
+        }
+        if (entry.task instanceof CheckStateTask) {
+            checkQueued = false;
+        }
+        if (isEmptyQueue()) {
+            lastRunTime = Long.MIN_VALUE;
+        }
+        return entry.task;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+
+        final String name;
+        Runnable task;
+        final long runTime;
+        final long seq;
+        // the earliest time takeNext() may take the task, 0 for any time
+        long notBefore;
+
+        Workload workload;
+
+        // entries that wait for this one
+        List<Entry> dependents;
+        // number of entries this one waits for
+        int waitingFor;
+        // removed from the queue while others may still list it as dependent
+        boolean cancelled;
+
+        Entry(String name, Runnable task, long runTime, long seq) {
+            this.name = name;
+            this.task = task;
+            this.runTime = runTime;
+            this.seq = seq;
+        }
+
+        void addDependent(Entry entry) {
+            if (dependents == null) {
+                dependents = new ArrayList<>();
+            }
+            dependents.add(entry);
+            entry.waitingFor++;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(runTime, other.runTime);
+            return (result != 0) ? result : Long.compare(seq, other.seq);
+        }
+
     }
 
 }
@@ -21,185 +21,198 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileAttribute;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.storj.db.DB;
 import io.storj.libstorj.Bucket;
-import io.storj.libstorj.DeleteFileCallback;
 import io.storj.libstorj.File;
-import io.storj.libstorj.GetFileIdCallback;
-import io.storj.libstorj.Storj;
-import io.storj.libstorj.UploadFileCallback;
 
-public class UploadFileTask implements Runnable {
+public class UploadFileTask implements FileTask {
 
     private static final Logger logger = LoggerFactory.getLogger(UploadFileTask.class);
 
     private Bucket bucket;
     private Path path;
     private String fileName;
-    private long uploadState;
+    private long size;
+    private long modifiedTime;
+    private volatile CompletableFuture<File> upload;
 
     public UploadFileTask(Bucket bucket, Path path) {
         this.bucket = bucket;
         this.path = path;
-        this.fileName = StorjUtil.getStorjName(path);
+        this.fileName = SyncKey.of(path, false).getStorjName();
+    }
+
+    /**
+     * Creates the task with the size and the modification time of the file
+     * known, so the task can be scheduled without reading them again.
+     */
+    public UploadFileTask(Bucket bucket, LocalFile file) {
+        this(bucket, file.getPath());
+        this.size = file.getSize();
+        this.modifiedTime = file.getLastModified();
+    }
+
+    @Override
+    public String getName() {
+        return DB.getName(path);
+    }
+
+    @Override
+    public Workload getWorkload() {
+        return Workload.UPLOAD;
+    }
+
+    @Override
+    public long getTransferSize() {
+        return size;
     }
 
     @Override
-    public void run() {
+    public long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    @Override
+    public CompletableFuture<Void> start() {
+        // copy on the calling thread of the upload executor, so the copies count against the upload limit
+        final LocalFile file;
+        final Path tmp;
         try {
-            deleteIfExisting();
-        } catch (InterruptedException e) {
-            // interrupted - stop execution
-            return;
+            file = LocalFile.of(path);
+            tmp = createTempFile();
+        } catch (IOException e) {
+            logger.info("file {} removed during temporary file creation?", path, e);
+            return CompletableFuture.completedFuture(null);
         }
 
-        logger.info("Uploading file {}", fileName);
+        // remember the uploaded content, so a later touch is not taken for a change
+        final CompletableFuture<String> hash = CompletableFuture.supplyAsync(
+                () -> ContentHashes.getFromCopy(file, tmp), ContentHashes.getExecutor());
 
-        final boolean repeat[] = { true };
-        Path tmpPath = null;
+        return upload(App.getInstance().getStorjClient(), tmp, hash);
+    }
 
+    /**
+     * Copies the file to a temporary file.
+     *
+     * @return the temporary file
+     */
+    private Path createTempFile() throws IOException {
+        Path tmpPath = Files.createTempFile("file", ".tmp");
         try {
-            tmpPath = Files.createTempFile("file", ".tmp");
             Files.copy(path, tmpPath, StandardCopyOption.REPLACE_EXISTING);
+            return tmpPath;
         } catch (IOException e) {
-            logger.info("file {} removed during temporary file creation?", path, e);
-            try {
-                Files.delete(tmpPath);
-            } catch (IOException e1) {}
-            return;
+            deleteTempFile(tmpPath);
+            throw e;
         }
+    }
 
-        while (repeat[0]) {
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            uploadState = App.getInstance().getStorj().uploadFile(bucket, fileName, tmpPath.toString(), new UploadFileCallback() {
-                @Override
-                public void onProgress(String filePath, double progress, long uploadedBytes, long totalBytes) {
-                    String progressMessage = String.format("  %3d%% %15d/%d bytes",
-                            (int) (progress * 100), uploadedBytes, totalBytes);
-                    logger.info(progressMessage);
-
-                    // user might have delete large file during uploading. so we check this situation to ensure canceling is possible
-                    if (!Files.exists(path)) {
-                        logger.info("File {} does not exist anymore (renamed, deleted or moved). Canceling upload.", path);
-                        App.getInstance().getStorj().cancelUpload(uploadState);
-                    }
-                }
+    private CompletableFuture<Void> upload(final StorjClient client, final Path tmp,
+            final CompletableFuture<String> hash) {
+        return deleteIfExisting(client).thenCompose(v -> {
+            logger.info("Uploading file {}", fileName);
+
+            return client.retry(RetryPolicy.Operation.UPLOAD, () -> {
+                upload = client.uploadFile(bucket, fileName, tmp.toString(), this::onProgress);
+                return upload;
+            }, e -> {
+                logger.error("Upload failed due to temporary error: {} ({}). Trying again.",
+                        e.getMessage(), e.getCode());
+                App.getInstance().getConcurrencyLimit(Workload.UPLOAD).onTemporaryError();
+            });
+        }).thenCombine(hash, (file, h) -> file).handle((file, e) -> {
+            // the hash may still read the copy if the upload failed
+            hash.whenComplete((h, e1) -> deleteTempFile(tmp));
+            if (e == null) {
+                onComplete(file);
+            } else {
+                onError(e);
+            }
+            return null;
+        });
+    }
 
-                @Override
-                public void onComplete(String filePath, File file) {
-                    try {
-                        DB.setSynced(file, path);
-                        DB.commit();
-                        logger.info("Upload completed");
-                    } catch (IOException e) {
-                        logger.error("I/O error", e);
-                    }
-
-                    repeat[0] = false;
-                    latch.countDown();
-                }
+    private void onProgress(double progress, long uploadedBytes, long totalBytes) {
+        String progressMessage = String.format("  %3d%% %15d/%d bytes",
+                (int) (progress * 100), uploadedBytes, totalBytes);
+        logger.info(progressMessage);
 
-                @Override
-                public void onError(String filePath, int code, String message) {
-                    if (StorjUtil.isTemporaryError(code)) {
-                        logger.error("Upload failed due to temporary error: {} ({}). Trying again.", message, code);
-                    } else {
-                        try {
-                            DB.setUploadFailed(path);
-                            DB.commit();
-                            logger.error("Upload failed: {} ({})", message, code);
-                        } catch (IOException e) {
-                            logger.error("I/O error", e);
-                        }
-
-                        repeat[0] = false;
-                    }
-
-                    latch.countDown();
-                }
-            });
+        // user might have delete large file during uploading. so we check this situation to ensure canceling is possible
+        CompletableFuture<File> current = upload;
+        if (!Files.exists(path) && current != null) {
+            logger.info("File {} does not exist anymore (renamed, deleted or moved). Canceling upload.", path);
+            current.cancel(false);
+        }
+    }
 
-            try {
-                latch.await();
+    private void onComplete(File file) {
+        try {
+            DB.setSynced(file, path);
+            DB.commit();
+            logger.info("Upload completed");
+        } catch (IOException e) {
+            logger.error("I/O error", e);
+        }
 
-                if (repeat[0]) {
-                    // error - wait 3 seconds before trying again
-                    Thread.sleep(3000);
-                }
-            } catch (InterruptedException e) {
-                // interrupted - stop execution
-                return;
-            } finally {
-                try {
-                    Files.delete(tmpPath);
-                } catch (IOException e) { }
-            }
+        App.getInstance().getConcurrencyLimit(Workload.UPLOAD).onSuccess(file.getSize());
+    }
+
+    private void onError(Throwable e) {
+        try {
+            DB.setUploadFailed(path);
+            DB.commit();
+            logger.error("Upload failed: {}", StorjClient.getErrorMessage(e));
+        } catch (IOException e1) {
+            logger.error("I/O error", e1);
         }
     }
 
-    private void deleteIfExisting() throws InterruptedException {
-        final boolean repeat[] = { true };
-
-        while (repeat[0]) {
-            final CountDownLatch latch = new CountDownLatch(1);
-
-            App.getInstance().getStorj().getFileId(bucket, fileName, new GetFileIdCallback() {
-                @Override
-                public void onFileIdReceived(String fileName, String fileId) {
-                    logger.info("Deleting old version of {} on the cloud", fileName);
-
-                    App.getInstance().getStorj().deleteFile(bucket.getId(), fileId, new DeleteFileCallback() {
-                        @Override
-                        public void onFileDeleted(String fileId) {
-                            logger.info("Old version of {} deleted", fileName);
-                            repeat[0] = false;
-                            latch.countDown();
-                        }
-
-                        @Override
-                        public void onError(String fileId, int code, String message) {
-                            if (StorjUtil.isTemporaryError(code)) {
-                                logger.error(
-                                        "Failed deleting old version due to temporary error: {} ({}). Trying again.",
-                                        message, code);
-                            } else {
-                                logger.error("Failed deleting old version: {} ({})", message, code);
-                                repeat[0] = false;
-                            }
-                            latch.countDown();
-                        }
-                    });
-                }
+    private CompletableFuture<Void> deleteIfExisting(final StorjClient client) {
+        return client.retry(RetryPolicy.Operation.GET_FILE_ID, () -> client.getFileId(bucket, fileName), e -> {
+            logger.error(
+                    "Error checking if file with name {} exists due to temporary error: {} ({}). Trying again.",
+                    fileName, e.getMessage(), e.getCode());
+        }).handle((fileId, e) -> {
+            if (e != null) {
+                logger.error("Error checking if file with name {} exists: {}", fileName,
+                        StorjClient.getErrorMessage(e));
+                return null;
+            }
+            // null if there is no file to delete
+            return fileId;
+        }).thenCompose(fileId -> {
+            if (fileId == null) {
+                return CompletableFuture.completedFuture(null);
+            }
 
-                @Override
-                public void onError(String fileName, int code, String message) {
-                    if (code == Storj.HTTP_NOT_FOUND) {
-                        // no file to delete
-                        repeat[0] = false;
-                    } else if (StorjUtil.isTemporaryError(code)) {
-                        logger.error(
-                                "Error checking if file with name {} exists due to temporary error: {} ({}). Trying again.",
-                                fileName, message, code);
-                    } else {
-                        logger.error("Error checking if file with name {} exists: {} ({})", fileName, message, code);
-                        repeat[0] = false;
-                    }
-                    latch.countDown();
+            logger.info("Deleting old version of {} on the cloud", fileName);
+
+            return client.retry(RetryPolicy.Operation.DELETE_FILE,
+                    () -> client.deleteFile(bucket.getId(), fileId), e -> {
+                logger.error("Failed deleting old version due to temporary error: {} ({}). Trying again.",
+                        e.getMessage(), e.getCode());
+            }).handle((result, e) -> {
+                if (e == null) {
+                    logger.info("Old version of {} deleted", fileName);
+                } else {
+                    logger.error("Failed deleting old version: {}", StorjClient.getErrorMessage(e));
                 }
+                return null;
             });
+        });
+    }
 
-            latch.await();
-
-            if (repeat[0]) {
-                // error - wait 3 seconds before trying again
-                Thread.sleep(3000);
-            }
+    private static void deleteTempFile(Path tmp) {
+        if (tmp != null) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) { }
         }
     }
 
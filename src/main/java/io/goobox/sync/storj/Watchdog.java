@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds libstorj calls whose callback never comes. A call that goes longer
+ * than the stall timeout of its {@link RetryPolicy.Operation} without a
+ * callback, or a transfer without progress, is aborted: the transfer is
+ * cancelled in libstorj and the future fails with a timeout, which frees the
+ * task waiting for it and lets the retry policy decide what comes next.
+ */
+public class Watchdog implements WatchdogMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(Watchdog.class);
+
+    public static final long CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * A watched call.
+     */
+    public static class Watch {
+
+        private final RetryPolicy.Operation operation;
+        private final String target;
+        private final Runnable abort;
+        private volatile long lastActivity;
+
+        Watch(RetryPolicy.Operation operation, String target, Runnable abort, long now) {
+            this.operation = operation;
+            this.target = target;
+            this.abort = abort;
+            this.lastActivity = now;
+        }
+
+        /**
+         * Restarts the stall timeout, e.g. on transfer progress.
+         */
+        public void touch() {
+            lastActivity = now();
+        }
+
+    }
+
+    private final Map<RetryPolicy.Operation, Long> stallTimeouts = new EnumMap<>(RetryPolicy.Operation.class);
+    private final Set<Watch> watched = ConcurrentHashMap.newKeySet();
+    private final AtomicLong stalls = new AtomicLong();
+    private ScheduledExecutorService timer;
+
+    public Watchdog() {
+        for (RetryPolicy.Operation operation : RetryPolicy.Operation.values()) {
+            stallTimeouts.put(operation, operation.getStallTimeout());
+        }
+    }
+
+    /**
+     * Sets the stall timeout of an operation. Must be called before
+     * {@link #start()}. A timeout of 0 turns off watching the operation.
+     */
+    public void setStallTimeout(RetryPolicy.Operation operation, long timeout) {
+        stallTimeouts.put(operation, Math.max(0, timeout));
+    }
+
+    public long getStallTimeout(RetryPolicy.Operation operation) {
+        return stallTimeouts.get(operation);
+    }
+
+    /**
+     * Starts checking the watched calls every {@link #CHECK_INTERVAL}.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storj-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> check(now()), CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /**
+     * Publishes the metrics as a platform MXBean.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("io.goobox.sync.storj:type=Watchdog"));
+        } catch (JMException e) {
+            logger.warn("Cannot register the watchdog", e);
+        }
+    }
+
+    /**
+     * Watches a call until {@link #unwatch(Watch)}.
+     *
+     * @param target
+     *            the file or bucket of the call, for the log
+     * @param abort
+     *            ends the call when it stalls
+     * @return the watch, or <code>null</code> if the operation is not watched
+     */
+    public Watch watch(RetryPolicy.Operation operation, String target, Runnable abort) {
+        if (stallTimeouts.get(operation) <= 0) {
+            return null;
+        }
+        Watch watch = new Watch(operation, target, abort, now());
+        watched.add(watch);
+        return watch;
+    }
+
+    public void unwatch(Watch watch) {
+        if (watch != null) {
+            watched.remove(watch);
+        }
+    }
+
+    void check(long now) {
+        for (Watch watch : watched) {
+            long idle = now - watch.lastActivity;
+            if (idle <= stallTimeouts.get(watch.operation) || !watched.remove(watch)) {
+                continue;
+            }
+
+            stalls.incrementAndGet();
+            logger.warn("No callback for {} of {} in {} seconds. Aborting.", watch.operation.getId(), watch.target,
+                    TimeUnit.MILLISECONDS.toSeconds(idle));
+            try {
+                watch.abort.run();
+            } catch (RuntimeException e) {
+                logger.error("Failed aborting {} of {}", watch.operation.getId(), watch.target, e);
+            }
+        }
+    }
+
+    @Override
+    public int getWatched() {
+        return watched.size();
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    @Override
+    public long getMaxIdleTime() {
+        long now = now();
+        long max = 0;
+        for (Watch watch : watched) {
+            max = Math.max(max, now - watch.lastActivity);
+        }
+        return max;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+/**
+ * Metrics of a {@link Watchdog}, published as a platform MXBean.
+ */
+public interface WatchdogMXBean {
+
+    /**
+     * Returns the number of libstorj calls being watched.
+     */
+    int getWatched();
+
+    /**
+     * Returns the number of calls aborted as stalled since startup.
+     */
+    long getStalls();
+
+    /**
+     * Returns the longest time in milliseconds a watched call has gone
+     * without a callback or progress.
+     */
+    long getMaxIdleTime();
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+/**
+ * Kinds of work the file tasks do. Each kind runs in its own
+ * {@link StorjExecutorService} with its own number of concurrent tasks, so
+ * slow transfers do not hold back quick metadata and local operations.
+ * <p>
+ * The transfers are further limited by a {@link ConcurrencyLimit}, which
+ * can go up to the concurrency of the workload.
+ * </p>
+ */
+public enum Workload {
+
+    UPLOAD("upload", 4, true),
+    DOWNLOAD("download", 8, true),
+    CLOUD_METADATA("cloud-metadata", 32, true),
+    LOCAL_FS("local-fs", 2, false);
+
+    // threads that only start the network calls of async tasks
+    private static final int ASYNC_THREADS = 2;
+
+    private final String id;
+    private final int defaultConcurrency;
+    private final boolean async;
+
+    private Workload(String id, int defaultConcurrency, boolean async) {
+        this.id = id;
+        this.defaultConcurrency = defaultConcurrency;
+        this.async = async;
+    }
+
+    /**
+     * Returns the name used in command line options and metrics.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the default number of tasks that may run at the same time.
+     */
+    public int getDefaultConcurrency() {
+        return defaultConcurrency;
+    }
+
+    /**
+     * Returns <code>true</code> if the tasks wait for the network without
+     * holding a thread.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Returns the number of threads needed to run the given number of tasks
+     * at the same time.
+     */
+    public int getThreads(int concurrency) {
+        return async ? Math.min(concurrency, ASYNC_THREADS) : concurrency;
+    }
+
+    /**
+     * Returns <code>true</code> if the tasks call the bridge.
+     */
+    public boolean isCloud() {
+        return this != LOCAL_FS;
+    }
+
+    public boolean isTransfer() {
+        return this == UPLOAD || this == DOWNLOAD;
+    }
+
+}
@@ -19,9 +19,14 @@ package io.goobox.sync.storj.db;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
+import org.dizitart.no2.FindOptions;
 import org.dizitart.no2.Nitrite;
+import org.dizitart.no2.SortOrder;
 import org.dizitart.no2.objects.ObjectFilter;
 import org.dizitart.no2.objects.ObjectRepository;
 import org.dizitart.no2.objects.filters.ObjectFilters;
@@ -30,6 +35,7 @@ import org.slf4j.LoggerFactory;
 
 import io.goobox.sync.common.Utils;
 import io.goobox.sync.storj.App;
+import io.goobox.sync.storj.LocalFile;
 import io.goobox.sync.storj.StorjUtil;
 import io.storj.libstorj.File;
 
@@ -37,6 +43,9 @@ public class DB {
 
     private static final Logger logger = LoggerFactory.getLogger(DB.class);
 
+    // records read at once by forEach
+    private static final int PAGE_SIZE = 1000;
+
     private static Nitrite db;
 
     private static Nitrite db() {
@@ -50,6 +59,14 @@ public class DB {
         return db().getRepository(SyncFile.class);
     }
 
+    private static ObjectRepository<DirDigest> digests() {
+        return db().getRepository(DirDigest.class);
+    }
+
+    private static ObjectRepository<ListingFingerprint> fingerprints() {
+        return db().getRepository(ListingFingerprint.class);
+    }
+
     private static ObjectFilter withName(String fileName) {
         return ObjectFilters.eq("name", fileName);
     }
@@ -75,11 +92,18 @@ public class DB {
     }
 
     public static String getName(File file) {
-        return file.getName().replaceAll("/+$", ""); // remove trailing slash
+        // remove trailing slash
+        String name = file.getName();
+        int end = name.length();
+        while (end > 0 && name.charAt(end - 1) == '/') {
+            end--;
+        }
+        return (end == name.length()) ? name : name.substring(0, end);
     }
 
     public static String getName(Path path) {
-        return StorjUtil.getStorjName(path).replaceAll("/+$", ""); // remove trailing slash
+        // same as the Storj name without trailing slash, but without checking if the path is a dir
+        return StorjUtil.getStorjPath(path).toString().replace('\\', '/');
     }
 
     public synchronized static void close() {
@@ -94,6 +118,59 @@ public class DB {
         return repo().find().toList();
     }
 
+    /**
+     * Passes all records to the consumer in name order without loading them
+     * all in memory. The records are read in pages and the DB is not locked
+     * while the consumer runs, so tasks can update records meanwhile. A record
+     * updated during the call is passed in either state.
+     */
+    public static void forEach(Consumer<SyncFile> consumer) {
+        String last = null;
+        List<SyncFile> page;
+        do {
+            page = page(last);
+            for (SyncFile syncFile : page) {
+                consumer.accept(syncFile);
+            }
+            if (!page.isEmpty()) {
+                last = page.get(page.size() - 1).getName();
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Returns the next page of records with names after the given one, or
+     * from the first if <code>null</code>.
+     */
+    private synchronized static List<SyncFile> page(String after) {
+        ObjectFilter filter = (after == null) ? ObjectFilters.ALL : ObjectFilters.gt("name", after);
+        return repo().find(filter, FindOptions.sort("name", SortOrder.Ascending).thenLimit(0, PAGE_SIZE)).toList();
+    }
+
+    /**
+     * Loads all records at once for a sync check.
+     */
+    public synchronized static SyncSnapshot snapshot() {
+        return new SyncSnapshot(all());
+    }
+
+    /**
+     * Writes back the state changes made in the snapshot and clears them from
+     * the snapshot.
+     */
+    public synchronized static void apply(SyncSnapshot snapshot) {
+        for (String fileName : snapshot.getRemoved()) {
+            remove(fileName);
+        }
+        for (SyncFile syncFile : snapshot.getUpdated()) {
+            repo().update(syncFile, true);
+        }
+        for (Path path : snapshot.getChangedPaths()) {
+            App.getInstance().getOverlayHelper().refresh(path);
+        }
+        snapshot.clearChanges();
+    }
+
     public synchronized static boolean contains(File file) {
         return contains(getName(file));
     }
@@ -152,13 +229,66 @@ public class DB {
         return repo().size();
     }
 
+    /**
+     * Returns the stored digests of the directories found in sync, keyed by
+     * directory name.
+     */
+    public synchronized static Map<String, String> getDirDigests() {
+        Map<String, String> result = new HashMap<>();
+        for (DirDigest dirDigest : digests().find()) {
+            result.put(dirDigest.getName(), dirDigest.getDigest());
+        }
+        return result;
+    }
+
+    public synchronized static String getListingFingerprint(String bucketId) {
+        ListingFingerprint fingerprint = fingerprints().find(ObjectFilters.eq("bucketId", bucketId)).firstOrDefault();
+        return (fingerprint == null) ? null : fingerprint.getFingerprint();
+    }
+
+    /**
+     * Stores the fingerprint of the last cloud listing, or removes it if
+     * <code>null</code>.
+     */
+    public synchronized static void setListingFingerprint(String bucketId, String fingerprint) {
+        if (fingerprint == null) {
+            fingerprints().remove(ObjectFilters.eq("bucketId", bucketId));
+        } else {
+            fingerprints().update(new ListingFingerprint(bucketId, fingerprint), true);
+        }
+    }
+
+    /**
+     * Stores the dir digests, writing only those that differ from the stored
+     * ones.
+     *
+     * @param stored
+     *            the digests as returned by {@link #getDirDigests()}
+     */
+    public synchronized static void setDirDigests(Map<String, String> dirDigests, Map<String, String> stored) {
+        for (String name : stored.keySet()) {
+            if (!dirDigests.containsKey(name)) {
+                digests().remove(ObjectFilters.eq("name", name));
+            }
+        }
+        for (Map.Entry<String, String> entry : dirDigests.entrySet()) {
+            if (!entry.getValue().equals(stored.get(entry.getKey()))) {
+                digests().update(new DirDigest(entry.getKey(), entry.getValue()), true);
+            }
+        }
+    }
+
     public synchronized static void setSynced(File storjFile, Path localFile) throws IOException {
+        setSynced(storjFile, LocalFile.of(localFile));
+    }
+
+    public synchronized static void setSynced(File storjFile, LocalFile localFile) {
         SyncFile syncFile = getOrCreate(storjFile);
         syncFile.setCloudData(storjFile);
         syncFile.setLocalData(localFile);
         syncFile.setState(SyncState.SYNCED);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(localFile);
+        App.getInstance().getOverlayHelper().refresh(localFile.getPath());
     }
 
     public synchronized static void addForDownload(File file) {
@@ -170,30 +300,42 @@ public class DB {
     }
 
     public synchronized static void addForDownload(File storjFile, Path localFile) throws IOException {
+        addForDownload(storjFile, LocalFile.of(localFile));
+    }
+
+    public synchronized static void addForDownload(File storjFile, LocalFile localFile) {
         SyncFile syncFile = getOrCreate(storjFile);
         syncFile.setCloudData(storjFile);
         syncFile.setLocalData(localFile);
         syncFile.setState(SyncState.FOR_DOWNLOAD);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(localFile);
+        App.getInstance().getOverlayHelper().refresh(localFile.getPath());
     }
 
     public synchronized static void addForUpload(Path path) throws IOException {
-        remove(path);
-        SyncFile syncFile = getOrCreate(path);
-        syncFile.setLocalData(path);
+        addForUpload(LocalFile.of(path));
+    }
+
+    public synchronized static void addForUpload(LocalFile file) {
+        remove(file.getName());
+        SyncFile syncFile = getOrCreate(file.getName());
+        syncFile.setLocalData(file);
         syncFile.setState(SyncState.FOR_UPLOAD);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(path);
+        App.getInstance().getOverlayHelper().refresh(file.getPath());
     }
 
     public synchronized static void addForUpload(File storjFile, Path localFile) throws IOException {
-        SyncFile syncFile = getOrCreate(localFile);
+        addForUpload(storjFile, LocalFile.of(localFile));
+    }
+
+    public synchronized static void addForUpload(File storjFile, LocalFile localFile) {
+        SyncFile syncFile = getOrCreate(localFile.getName());
         syncFile.setCloudData(storjFile);
         syncFile.setLocalData(localFile);
         syncFile.setState(SyncState.FOR_UPLOAD);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(localFile);
+        App.getInstance().getOverlayHelper().refresh(localFile.getPath());
     }
 
     public synchronized static void setDownloadFailed(File storjFile, Path localFile) throws IOException {
@@ -202,7 +344,7 @@ public class DB {
         if (localFile != null && Files.exists(localFile)) {
             syncFile.setLocalData(localFile);
         }
-        syncFile.setState(SyncState.DOWNLOAD_FAILED);
+        syncFile.setFailed(SyncState.DOWNLOAD_FAILED);
         repo().update(syncFile);
         App.getInstance().getOverlayHelper().refresh(localFile);
     }
@@ -212,17 +354,29 @@ public class DB {
         if (Files.exists(path)) {
             syncFile.setLocalData(path);
         }
-        syncFile.setState(SyncState.UPLOAD_FAILED);
+        syncFile.setFailed(SyncState.UPLOAD_FAILED);
         repo().update(syncFile);
         App.getInstance().getOverlayHelper().refresh(path);
     }
 
+    public synchronized static void setUploadFailed(LocalFile file) {
+        SyncFile syncFile = get(file.getName());
+        syncFile.setLocalData(file);
+        syncFile.setFailed(SyncState.UPLOAD_FAILED);
+        repo().update(syncFile);
+        App.getInstance().getOverlayHelper().refresh(file.getPath());
+    }
+
     public synchronized static void setForLocalDelete(Path path) throws IOException {
-        SyncFile syncFile = get(path);
-        syncFile.setLocalData(path);
+        setForLocalDelete(LocalFile.of(path));
+    }
+
+    public synchronized static void setForLocalDelete(LocalFile file) {
+        SyncFile syncFile = get(file.getName());
+        syncFile.setLocalData(file);
         syncFile.setState(SyncState.FOR_LOCAL_DELETE);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(path);
+        App.getInstance().getOverlayHelper().refresh(file.getPath());
     }
 
     public synchronized static void setForCloudDelete(File file) {
@@ -240,11 +394,15 @@ public class DB {
     }
 
     public synchronized static void addForCloudCreateDir(Path path) throws IOException {
-        SyncFile syncFile = getOrCreate(path);
-        syncFile.setLocalData(path);
+        addForCloudCreateDir(LocalFile.of(path));
+    }
+
+    public synchronized static void addForCloudCreateDir(LocalFile dir) {
+        SyncFile syncFile = getOrCreate(dir.getName());
+        syncFile.setLocalData(dir);
         syncFile.setState(SyncState.FOR_CLOUD_CREATE_DIR);
         repo().update(syncFile);
-        App.getInstance().getOverlayHelper().refresh(path);
+        App.getInstance().getOverlayHelper().refresh(dir.getPath());
     }
 
     public synchronized static void setConflict(File storjFile, Path localFile) throws IOException {
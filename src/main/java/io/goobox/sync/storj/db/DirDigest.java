@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj.db;
+
+import java.io.Serializable;
+
+import org.dizitart.no2.objects.Id;
+
+/**
+ * Digest of a directory subtree, stored when all files in the subtree were
+ * found in sync.
+ */
+@SuppressWarnings("serial")
+public class DirDigest implements Serializable {
+
+    @Id
+    private String name;
+
+    private String digest;
+
+    public DirDigest() {
+    }
+
+    public DirDigest(String name, String digest) {
+        this.name = name;
+        this.digest = digest;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append("DirDigest[")
+                .append("name = ").append(name)
+                .append(", digest = ").append(digest)
+                .append("]")
+                .toString();
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj.db;
+
+import java.io.Serializable;
+
+import org.dizitart.no2.objects.Id;
+
+/**
+ * Fingerprint of the last cloud listing of a bucket that left nothing to
+ * synchronize.
+ */
+@SuppressWarnings("serial")
+public class ListingFingerprint implements Serializable {
+
+    @Id
+    private String bucketId;
+
+    private String fingerprint;
+
+    public ListingFingerprint() {
+    }
+
+    public ListingFingerprint(String bucketId, String fingerprint) {
+        this.bucketId = bucketId;
+        this.fingerprint = fingerprint;
+    }
+
+    public String getBucketId() {
+        return bucketId;
+    }
+
+    public void setBucketId(String bucketId) {
+        this.bucketId = bucketId;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+}
@@ -18,7 +18,6 @@ package io.goobox.sync.storj.db;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
 
@@ -26,7 +25,9 @@ import org.dizitart.no2.objects.Id;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.goobox.sync.storj.StorjUtil;
+import io.goobox.sync.storj.CloudFile;
+import io.goobox.sync.storj.ContentHashes;
+import io.goobox.sync.storj.LocalFile;
 import io.storj.libstorj.File;
 
 @SuppressWarnings("serial")
@@ -43,12 +44,34 @@ public class SyncFile implements Serializable {
 
     private long storjSize;
 
+    private String storjHmac;
+
     private long localModifiedTime;
 
     private long localSize;
 
+    private String localHash;
+
     private SyncState state;
 
+    private long failedTime;
+
+    public SyncFile() {
+    }
+
+    public SyncFile(SyncFile other) {
+        this.name = other.name;
+        this.storjId = other.storjId;
+        this.storjCreatedTime = other.storjCreatedTime;
+        this.storjSize = other.storjSize;
+        this.storjHmac = other.storjHmac;
+        this.localModifiedTime = other.localModifiedTime;
+        this.localSize = other.localSize;
+        this.localHash = other.localHash;
+        this.state = other.state;
+        this.failedTime = other.failedTime;
+    }
+
     public String getName() {
         return name;
     }
@@ -81,6 +104,14 @@ public class SyncFile implements Serializable {
         this.storjSize = storjSize;
     }
 
+    public String getStorjHmac() {
+        return storjHmac;
+    }
+
+    public void setStorjHmac(String storjHmac) {
+        this.storjHmac = storjHmac;
+    }
+
     public long getLocalModifiedTime() {
         return localModifiedTime;
     }
@@ -97,6 +128,14 @@ public class SyncFile implements Serializable {
         this.localSize = localSize;
     }
 
+    public String getLocalHash() {
+        return localHash;
+    }
+
+    public void setLocalHash(String localHash) {
+        this.localHash = localHash;
+    }
+
     public SyncState getState() {
         return state;
     }
@@ -105,19 +144,52 @@ public class SyncFile implements Serializable {
         this.state = state;
     }
 
+    /**
+     * Returns the time the file entered its failed state, or 0 if not known.
+     */
+    public long getFailedTime() {
+        return failedTime;
+    }
+
+    public void setFailedTime(long failedTime) {
+        this.failedTime = failedTime;
+    }
+
+    /**
+     * Sets a failed state. The time of the failure is kept while the file
+     * stays in that state.
+     */
+    public void setFailed(SyncState state) {
+        if (this.state != state) {
+            failedTime = System.currentTimeMillis();
+        }
+        this.state = state;
+    }
+
     public void setCloudData(File file) {
+        setCloudData(new CloudFile(file));
+    }
+
+    public void setCloudData(CloudFile file) {
         setStorjId(file.getId());
         try {
-            setStorjCreatedTime(StorjUtil.getTime(file.getCreated()));
+            setStorjCreatedTime(file.getCreatedTime());
         } catch (ParseException e) {
             logger.error("Cannot parse timestamp", e);
         }
         setStorjSize(file.getSize());
+        setStorjHmac(file.getHMAC());
     }
 
     public void setLocalData(Path path) throws IOException {
-        setLocalModifiedTime(Files.getLastModifiedTime(path).toMillis());
-        setLocalSize(Files.size(path));
+        setLocalData(LocalFile.of(path));
+    }
+
+    public void setLocalData(LocalFile file) {
+        setLocalModifiedTime(file.getLastModified());
+        setLocalSize(file.getSize());
+        // known only if the file was hashed since its last change
+        setLocalHash(ContentHashes.getCached(file));
     }
 
     @Override
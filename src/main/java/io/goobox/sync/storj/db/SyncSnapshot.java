@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj.db;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.goobox.sync.storj.CloudFile;
+import io.goobox.sync.storj.LocalFile;
+
+/**
+ * In-memory copy of the sync DB for one sync check. Lookups are answered from
+ * memory and state changes are kept until they are written back with
+ * {@link DB#apply(SyncSnapshot)}.
+ * <p>
+ * A snapshot created empty holds only the records added to it, which is used
+ * for checks that read the DB in sorted chunks.
+ * </p>
+ * <p>
+ * The state changes work the same way as the ones in {@link DB}.
+ * </p>
+ */
+public class SyncSnapshot {
+
+    private final Map<String, SyncFile> files;
+
+    private final Map<String, SyncFile> updated = new LinkedHashMap<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+    private final List<Path> changedPaths = new ArrayList<>();
+
+    public SyncSnapshot() {
+        files = new HashMap<>();
+    }
+
+    SyncSnapshot(List<SyncFile> all) {
+        files = new HashMap<>(Math.max(16, (int) (all.size() / 0.75f) + 1));
+        for (SyncFile syncFile : all) {
+            files.put(syncFile.getName(), syncFile);
+        }
+    }
+
+    /**
+     * Adds a record read from the DB.
+     */
+    public void add(SyncFile syncFile) {
+        files.put(syncFile.getName(), syncFile);
+    }
+
+    /**
+     * Forgets all records and state changes.
+     */
+    public void clear() {
+        files.clear();
+        clearChanges();
+    }
+
+    void clearChanges() {
+        updated.clear();
+        removed.clear();
+        changedPaths.clear();
+    }
+
+    public Collection<SyncFile> all() {
+        return new ArrayList<>(files.values());
+    }
+
+    public boolean contains(CloudFile file) {
+        return contains(file.getName());
+    }
+
+    public boolean contains(String fileName) {
+        return files.containsKey(fileName);
+    }
+
+    public SyncFile get(CloudFile file) {
+        return get(file.getName());
+    }
+
+    public SyncFile get(String fileName) {
+        return files.get(fileName);
+    }
+
+    private SyncFile getOrCreate(String fileName) {
+        SyncFile syncFile = get(fileName);
+        if (syncFile == null) {
+            syncFile = new SyncFile();
+            syncFile.setName(fileName);
+            files.put(fileName, syncFile);
+        }
+        return syncFile;
+    }
+
+    private void update(SyncFile syncFile) {
+        removed.remove(syncFile.getName());
+        updated.put(syncFile.getName(), syncFile);
+    }
+
+    public void remove(CloudFile file) {
+        remove(file.getName());
+    }
+
+    public void remove(String fileName) {
+        files.remove(fileName);
+        updated.remove(fileName);
+        removed.add(fileName);
+    }
+
+    public void setSynced(CloudFile storjFile, LocalFile localFile) {
+        SyncFile syncFile = getOrCreate(storjFile.getName());
+        syncFile.setCloudData(storjFile);
+        syncFile.setLocalData(localFile);
+        syncFile.setState(SyncState.SYNCED);
+        update(syncFile);
+        changedPaths.add(localFile.getPath());
+    }
+
+    public void addForDownload(CloudFile file) {
+        remove(file);
+        SyncFile syncFile = getOrCreate(file.getName());
+        syncFile.setCloudData(file);
+        syncFile.setState(SyncState.FOR_DOWNLOAD);
+        update(syncFile);
+    }
+
+    public void addForDownload(CloudFile storjFile, LocalFile localFile) {
+        SyncFile syncFile = getOrCreate(storjFile.getName());
+        syncFile.setCloudData(storjFile);
+        syncFile.setLocalData(localFile);
+        syncFile.setState(SyncState.FOR_DOWNLOAD);
+        update(syncFile);
+        changedPaths.add(localFile.getPath());
+    }
+
+    public void addForUpload(LocalFile file) {
+        remove(file.getName());
+        SyncFile syncFile = getOrCreate(file.getName());
+        syncFile.setLocalData(file);
+        syncFile.setState(SyncState.FOR_UPLOAD);
+        update(syncFile);
+        changedPaths.add(file.getPath());
+    }
+
+    public void addForUpload(CloudFile storjFile, LocalFile localFile) {
+        SyncFile syncFile = getOrCreate(localFile.getName());
+        syncFile.setCloudData(storjFile);
+        syncFile.setLocalData(localFile);
+        syncFile.setState(SyncState.FOR_UPLOAD);
+        update(syncFile);
+        changedPaths.add(localFile.getPath());
+    }
+
+    public void setDownloadFailed(CloudFile storjFile) {
+        SyncFile syncFile = get(storjFile);
+        syncFile.setCloudData(storjFile);
+        syncFile.setFailed(SyncState.DOWNLOAD_FAILED);
+        update(syncFile);
+    }
+
+    public void setUploadFailed(LocalFile file) {
+        SyncFile syncFile = get(file.getName());
+        syncFile.setLocalData(file);
+        syncFile.setFailed(SyncState.UPLOAD_FAILED);
+        update(syncFile);
+        changedPaths.add(file.getPath());
+    }
+
+    public void setForLocalDelete(LocalFile file) {
+        SyncFile syncFile = get(file.getName());
+        syncFile.setLocalData(file);
+        syncFile.setState(SyncState.FOR_LOCAL_DELETE);
+        update(syncFile);
+        changedPaths.add(file.getPath());
+    }
+
+    public void setForCloudDelete(CloudFile file) {
+        SyncFile syncFile = get(file);
+        syncFile.setCloudData(file);
+        syncFile.setState(SyncState.FOR_CLOUD_DELETE);
+        update(syncFile);
+    }
+
+    public void addForLocalCreateDir(CloudFile file) {
+        SyncFile syncFile = getOrCreate(file.getName());
+        syncFile.setCloudData(file);
+        syncFile.setState(SyncState.FOR_LOCAL_CREATE_DIR);
+        update(syncFile);
+    }
+
+    public void addForCloudCreateDir(LocalFile dir) {
+        SyncFile syncFile = getOrCreate(dir.getName());
+        syncFile.setLocalData(dir);
+        syncFile.setState(SyncState.FOR_CLOUD_CREATE_DIR);
+        update(syncFile);
+        changedPaths.add(dir.getPath());
+    }
+
+    public void setConflict(CloudFile storjFile, LocalFile localFile) {
+        SyncFile syncFile = getOrCreate(storjFile.getName());
+        syncFile.setCloudData(storjFile);
+        syncFile.setLocalData(localFile);
+        syncFile.setState(SyncState.CONFLICT);
+        update(syncFile);
+        changedPaths.add(localFile.getPath());
+    }
+
+    public boolean isEmpty() {
+        return updated.isEmpty() && removed.isEmpty();
+    }
+
+    Collection<SyncFile> getUpdated() {
+        return updated.values();
+    }
+
+    Set<String> getRemoved() {
+        return removed;
+    }
+
+    List<Path> getChangedPaths() {
+        return changedPaths;
+    }
+
+}
@@ -17,9 +17,13 @@
 package io.goobox.sync.storj;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.util.Collections;
 
 import org.junit.After;
 import org.junit.Before;
@@ -38,6 +42,12 @@ import io.goobox.sync.storj.mocks.FileMock;
 import io.goobox.sync.storj.mocks.FileWatcherMock;
 import io.goobox.sync.storj.mocks.FilesMock;
 import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.Bucket;
+import io.storj.libstorj.File;
+import io.storj.libstorj.ListFilesCallback;
+import io.storj.libstorj.Storj;
+import mockit.Mock;
+import mockit.MockUp;
 import mockit.integration.junit4.JMockit;
 
 @RunWith(JMockit.class)
@@ -204,6 +214,24 @@ public class CheckStateTaskTest {
         AssertState.assertForUpload(StorjMock.FILE_1, FileMock.MODIFIED_FILE_1);
     }
 
+    @Test
+    public void modifiedLocalWhileUploading() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        FilesMock filesMock = new FilesMock(FileMock.FILE_1);
+
+        DB.setSynced(StorjMock.FILE_1, FileMock.FILE_1.getPath());
+        TaskQueue tasks = App.getInstance().getTaskQueue();
+        UploadFileTask upload = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        tasks.add(upload);
+        assertSame(upload, tasks.takeNext(1));
+        filesMock.modifyFile(FileMock.FILE_1, FileMock.MODIFIED_FILE_1);
+
+        new CheckStateTask().run();
+
+        // left to the next check, which must still see the local change
+        assertTrue(App.getInstance().getFileWatcher().hasDirtyPaths());
+    }
+
     @Test
     public void sameSizeCloudAndLocalNoDB() throws Exception {
         new StorjMock(StorjMock.FILE_1);
@@ -211,7 +239,19 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.FILE_1, FileMock.FILE_1);
+        AssertState.assertConflict(StorjMock.FILE_1, FileMock.FILE_1);
+    }
+
+    @Test
+    public void sameSizeDifferentContentNoDB() throws Exception {
+        FileMock sameSize = new FileMock("file-1-name", 1510739536000L, StorjMock.FILE_1.getSize(), false);
+        new StorjMock(StorjMock.FILE_1);
+        new FilesMock(sameSize);
+
+        new CheckStateTask().run();
+
+        // the size is the same, but nothing proves the content is
+        AssertState.assertConflict(StorjMock.FILE_1, sameSize);
     }
 
     @Test
@@ -255,7 +295,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -349,7 +389,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -483,7 +523,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -625,7 +665,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -748,7 +788,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -841,6 +881,21 @@ public class CheckStateTaskTest {
         AssertState.assertForDownloadFailed(StorjMock.FILE_1);
     }
 
+    @Test
+    public void retryFailedDownloadLater() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        new FilesMock();
+        retryFailedNow();
+
+        DB.addForDownload(StorjMock.FILE_1);
+        DB.setDownloadFailed(StorjMock.FILE_1, FileMock.FILE_1.getPath());
+
+        new CheckStateTask().run();
+
+        // the budget was used up, e.g. by an outage - try again
+        AssertState.assertForDownload(StorjMock.FILE_1);
+    }
+
     @Test
     public void resyncFailedDownloadCloudModified() throws Exception {
         StorjMock storjMock = new StorjMock(StorjMock.FILE_1);
@@ -898,7 +953,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -1036,6 +1091,20 @@ public class CheckStateTaskTest {
         AssertState.assertForUploadFailed(FileMock.FILE_1);
     }
 
+    @Test
+    public void retryFailedUploadLater() throws Exception {
+        new StorjMock();
+        new FilesMock(FileMock.FILE_1);
+        retryFailedNow();
+
+        DB.addForUpload(FileMock.FILE_1.getPath());
+        DB.setUploadFailed(FileMock.FILE_1.getPath());
+
+        new CheckStateTask().run();
+
+        AssertState.assertForUpload(FileMock.FILE_1);
+    }
+
     @Test
     public void resyncFailedUploadCloudModified() throws Exception {
         StorjMock storjMock = new StorjMock(StorjMock.FILE_1);
@@ -1093,7 +1162,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertSynced(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
+        AssertState.assertConflict(StorjMock.MODIFIED_FILE_1_SAMESIZE, FileMock.MODIFIED_FILE_1_SAMESIZE);
     }
 
     @Test
@@ -1307,7 +1376,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertTaskQueue(SleepTask.class);
+        AssertState.assertCheckQueued();
         assertEquals(2, DB.size());
         assertTrue(DB.contains(StorjMock.DIR));
         AssertSyncFile.assertWith(StorjMock.DIR, FileMock.DIR, SyncState.SYNCED);
@@ -1322,7 +1391,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertTaskQueue(SleepTask.class);
+        AssertState.assertCheckQueued();
         assertEquals(2, DB.size());
         assertTrue(DB.contains(StorjMock.DIR));
         AssertSyncFile.assertWith(StorjMock.DIR, FileMock.DIR, SyncState.SYNCED);
@@ -1415,7 +1484,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertTaskQueue(SleepTask.class);
+        AssertState.assertCheckQueued();
         assertEquals(2, DB.size());
         assertTrue(DB.contains(StorjMock.DIR));
         AssertSyncFile.assertWith(StorjMock.DIR, FileMock.DIR, SyncState.SYNCED);
@@ -1509,7 +1578,7 @@ public class CheckStateTaskTest {
 
         new CheckStateTask().run();
 
-        AssertState.assertTaskQueue(SleepTask.class);
+        AssertState.assertCheckQueued();
         assertEquals(3, DB.size());
         assertTrue(DB.contains(StorjMock.DIR));
         AssertSyncFile.assertWith(StorjMock.DIR, FileMock.DIR, SyncState.SYNCED);
@@ -1600,6 +1669,102 @@ public class CheckStateTaskTest {
         AssertState.assertSleepEmptyDB();
     }
 
+    @Test
+    public void uploadFinishedAfterListing() throws Exception {
+        new StorjMock();
+        new FilesMock(FileMock.FILE_1);
+
+        final TaskQueue tasks = App.getInstance().getTaskQueue();
+        final UploadFileTask upload = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        DB.addForUpload(FileMock.FILE_1.getPath());
+        tasks.add(upload);
+        assertSame(upload, tasks.takeNext(1));
+
+        new MockUp<Storj>() {
+            @Mock
+            public void listFiles(Bucket bucket, ListFilesCallback callback) {
+                // the upload finishes between the listing and the DB snapshot
+                try {
+                    DB.setSynced(StorjMock.FILE_1, FileMock.FILE_1.getPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                tasks.finished(upload);
+                callback.onFilesReceived(bucket.getId(), new File[0]);
+            }
+        };
+
+        new CheckStateTask().run();
+
+        // not deleted locally as if deleted from the cloud
+        AssertState.assertSynced(StorjMock.FILE_1, FileMock.FILE_1);
+    }
+
+    @Test
+    public void cloudDeleteFinishedAfterListing() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        new FilesMock(FileMock.FILE_1);
+
+        final TaskQueue tasks = App.getInstance().getTaskQueue();
+        final DeleteCloudFileTask delete = new DeleteCloudFileTask(StorjMock.BUCKET, StorjMock.FILE_1);
+        DB.setSynced(StorjMock.FILE_1, FileMock.FILE_1.getPath());
+        Files.deleteIfExists(FileMock.FILE_1.getPath());
+        DB.setForCloudDelete(StorjMock.FILE_1);
+        tasks.add(delete);
+        assertSame(delete, tasks.takeNext(1));
+
+        new MockUp<Storj>() {
+            @Mock
+            public void listFiles(Bucket bucket, ListFilesCallback callback) {
+                // the delete finishes between the listing and the DB snapshot
+                DB.remove(StorjMock.FILE_1);
+                tasks.finished(delete);
+                callback.onFilesReceived(bucket.getId(), new File[] { StorjMock.FILE_1 });
+            }
+        };
+
+        new CheckStateTask().run();
+
+        // not downloaded again as if new in the cloud
+        AssertState.assertSleepEmptyDB();
+    }
+
+    @Test
+    public void queuedTaskNotPlannedAgain() throws Exception {
+        new StorjMock();
+        new FilesMock(FileMock.FILE_1);
+
+        TaskQueue tasks = App.getInstance().getTaskQueue();
+        new CheckStateTask().run();
+        Runnable upload = tasks.peek();
+
+        new CheckStateTask().run();
+
+        // the queued upload is not replaced by the same decision
+        assertSame(upload, tasks.poll());
+        assertEquals(CheckStateTask.class, tasks.poll().getClass());
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void sortMergeClearsDirDigests() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        new FilesMock(FileMock.FILE_1);
+
+        DB.setDirDigests(Collections.singletonMap(DirDigests.ROOT, "old-root-digest"), DB.getDirDigests());
+        new MockUp<App>() {
+            @Mock
+            public long getMergeMemoryBudget() {
+                return 1024 * 1024;
+            }
+        };
+
+        new CheckStateTask().run();
+
+        // a later check in memory does not compare with the digests from before this check
+        assertTrue(DB.getDirDigests().isEmpty());
+    }
+
     @Test
     public void excludedFileNoCloud() throws Exception {
         new StorjMock();
@@ -1620,4 +1785,13 @@ public class CheckStateTaskTest {
         AssertState.assertSleepEmptyDB();
     }
 
+    private static void retryFailedNow() {
+        new MockUp<RetryPolicy>() {
+            @Mock
+            public long getFailedRetryDelay() {
+                return 0;
+            }
+        };
+    }
+
 }
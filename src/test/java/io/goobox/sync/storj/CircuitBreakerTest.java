@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.storj.libstorj.Storj;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void openAfterTemporaryErrors() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.CURLE_COULDNT_CONNECT, 0);
+        }
+        assertTrue(breaker.isClosed());
+
+        breaker.onResult(Storj.CURLE_COULDNT_CONNECT, 0);
+        assertFalse(breaker.isClosed());
+        assertEquals(CircuitBreaker.MIN_OPEN_TIME, breaker.getRemainingOpenTime(0));
+        assertFalse(breaker.tryProbe(CircuitBreaker.MIN_OPEN_TIME - 1));
+    }
+
+    @Test
+    public void bridgeRepliesResetFailures() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 1; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.CURLE_OPERATION_TIMEDOUT, 0);
+        }
+        // not temporary, but the bridge answered
+        breaker.onResult(Storj.HTTP_NOT_FOUND, 0);
+        breaker.onResult(Storj.CURLE_OPERATION_TIMEDOUT, 0);
+
+        assertTrue(breaker.isClosed());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void singleProbe() {
+        CircuitBreaker breaker = open();
+
+        assertTrue(breaker.tryProbe(CircuitBreaker.MIN_OPEN_TIME));
+        assertEquals(CircuitBreaker.State.HALF_OPEN.name(), breaker.getState());
+        assertFalse(breaker.tryProbe(CircuitBreaker.MIN_OPEN_TIME));
+    }
+
+    @Test
+    public void failedProbeDoublesOpenTime() {
+        CircuitBreaker breaker = open();
+        long now = CircuitBreaker.MIN_OPEN_TIME;
+        assertTrue(breaker.tryProbe(now));
+
+        breaker.onResult(Storj.CURLE_COULDNT_RESOLVE_HOST, now);
+        assertEquals(CircuitBreaker.State.OPEN.name(), breaker.getState());
+        assertEquals(2 * CircuitBreaker.MIN_OPEN_TIME, breaker.getRemainingOpenTime(now));
+        assertEquals(2, breaker.getOpenCount());
+    }
+
+    @Test
+    public void successfulProbeResumes() {
+        CircuitBreaker breaker = open();
+        AtomicInteger resumed = new AtomicInteger();
+        breaker.addCloseListener(resumed::incrementAndGet);
+        CompletableFuture<Void> closed = breaker.whenClosed();
+        assertFalse(closed.isDone());
+
+        assertTrue(breaker.tryProbe(CircuitBreaker.MIN_OPEN_TIME));
+        breaker.onSuccess();
+
+        assertTrue(breaker.isClosed());
+        assertTrue(closed.isDone());
+        assertEquals(1, resumed.get());
+
+        // opens with the minimum time again
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.CURLE_COULDNT_CONNECT, 0);
+        }
+        assertEquals(CircuitBreaker.MIN_OPEN_TIME, breaker.getRemainingOpenTime(0));
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.HTTP_SERVICE_UNAVAILABLE, 0);
+        }
+        return breaker;
+    }
+
+    @Test
+    public void abandonedProbeReleased() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.CURLE_COULDNT_CONNECT, 0);
+        }
+        long probe = CircuitBreaker.MIN_OPEN_TIME;
+        assertTrue(breaker.tryProbe(probe));
+        assertFalse(breaker.tryProbe(probe + 1));
+
+        // e.g. the probing check was interrupted
+        breaker.releaseProbe(probe + 2);
+        assertEquals("OPEN", breaker.getState());
+        assertTrue(breaker.tryProbe(probe + 2));
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void probeWithoutResultTimesOut() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.onResult(Storj.CURLE_COULDNT_CONNECT, 0);
+        }
+        long probe = CircuitBreaker.MIN_OPEN_TIME;
+        assertTrue(breaker.tryProbe(probe));
+        assertFalse(breaker.tryProbe(probe + CircuitBreaker.PROBE_TIMEOUT - 1));
+        assertTrue(breaker.tryProbe(probe + CircuitBreaker.PROBE_TIMEOUT));
+        assertFalse(breaker.isClosed());
+
+        breaker.onSuccess();
+        assertTrue(breaker.isClosed());
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ConcurrencyLimitTest {
+
+    @Test
+    public void increaseWhileThroughputHolds() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(Workload.UPLOAD, 4, 0);
+        assertEquals(2, limit.getLimit());
+
+        limit.onSuccess(1000, 500);
+        assertEquals(2, limit.getLimit());
+        limit.onSuccess(1000, 1000);
+        assertEquals(3, limit.getLimit());
+
+        // same throughput with one more transfer
+        limit.onSuccess(1000, 1500);
+        limit.onSuccess(1000, 1500);
+        limit.onSuccess(1000, 2500);
+        assertEquals(4, limit.getLimit());
+
+        for (int i = 1; i <= 4; i++) {
+            limit.onSuccess(1000, 2500 + i * 500);
+        }
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void noIncreaseWhenThroughputDrops() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(Workload.DOWNLOAD, 8, 0);
+        assertEquals(4, limit.getLimit());
+
+        for (int i = 1; i <= 4; i++) {
+            limit.onSuccess(1000, i * 250);
+        }
+        assertEquals(5, limit.getLimit());
+
+        // half the throughput of the previous window
+        for (int i = 1; i <= 5; i++) {
+            limit.onSuccess(1000, 1000 + i * 500);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void halveOnTemporaryError() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(Workload.DOWNLOAD, 16, 0);
+        assertEquals(8, limit.getLimit());
+
+        limit.onTemporaryError(1000);
+        assertEquals(4, limit.getLimit());
+
+        // the transfers failing together count once
+        limit.onTemporaryError(2000);
+        assertEquals(4, limit.getLimit());
+
+        limit.onTemporaryError(1000 + ConcurrencyLimit.BACKOFF_INTERVAL);
+        assertEquals(2, limit.getLimit());
+        limit.onTemporaryError(1000 + 2 * ConcurrencyLimit.BACKOFF_INTERVAL);
+        limit.onTemporaryError(1000 + 3 * ConcurrencyLimit.BACKOFF_INTERVAL);
+        assertEquals(1, limit.getLimit());
+    }
+
+    @Test
+    public void noIncreaseAfterError() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(Workload.UPLOAD, 8, 0);
+        limit.onTemporaryError(0);
+        assertEquals(2, limit.getLimit());
+
+        // an error within the window
+        limit.onSuccess(1000, 500);
+        limit.onTemporaryError(600);
+        limit.onSuccess(1000, 1000);
+        assertEquals(2, limit.getLimit());
+
+        limit.onSuccess(1000, 1500);
+        limit.onSuccess(1000, 2000);
+        assertEquals(3, limit.getLimit());
+    }
+
+    @Test
+    public void restartFromOneAfterResume() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(Workload.UPLOAD, 8, 0);
+        assertEquals(4, limit.getLimit());
+
+        limit.onResume(1000);
+        assertEquals(1, limit.getLimit());
+
+        limit.onSuccess(1000, 1500);
+        assertEquals(2, limit.getLimit());
+    }
+
+}
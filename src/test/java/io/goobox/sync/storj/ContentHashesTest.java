@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentHashesTest {
+
+    private Path dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = Files.createTempDirectory("goobox-hash");
+        ContentHashes.clear();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        for (Path path : Files.newDirectoryStream(dir)) {
+            Files.delete(path);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void sameContent() throws Exception {
+        Path a = write("a", "same content", 1000);
+        Path b = write("b", "same content", 2000);
+        Path c = write("c", "diff content", 1000);
+
+        assertEquals(ContentHashes.get(a), ContentHashes.get(b));
+        assertNotEquals(ContentHashes.get(a), ContentHashes.get(c));
+    }
+
+    @Test
+    public void cachedUntilChanged() throws Exception {
+        Path a = write("a", "content", 1000);
+        assertNull(ContentHashes.getCached(LocalFile.of(a)));
+
+        String hash = ContentHashes.get(a);
+        assertEquals(hash, ContentHashes.getCached(LocalFile.of(a)));
+
+        // touched
+        Files.setLastModifiedTime(a, FileTime.fromMillis(2000));
+        assertNull(ContentHashes.getCached(LocalFile.of(a)));
+        assertEquals(hash, ContentHashes.get(a));
+    }
+
+    @Test
+    public void computeAll() throws Exception {
+        Path a = write("a", "content a", 1000);
+        Path b = write("b", "", 1000);
+
+        ContentHashes.computeAll(Arrays.asList(LocalFile.of(a), LocalFile.of(b), LocalFile.of(dir)));
+
+        assertNotNull(ContentHashes.getCached(LocalFile.of(a)));
+        // SHA-256 of no data
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ContentHashes.getCached(LocalFile.of(b)));
+        assertNull(ContentHashes.getCached(LocalFile.of(dir)));
+    }
+
+    @Test
+    public void hashFromCopy() throws Exception {
+        Path a = write("a", "content", 1000);
+        Path copy = write("copy", "content", 2000);
+
+        String hash = ContentHashes.getFromCopy(LocalFile.of(a), copy);
+        assertEquals(hash, ContentHashes.getCached(LocalFile.of(a)));
+        assertNull(ContentHashes.getCached(LocalFile.of(copy)));
+    }
+
+    @Test
+    public void hashAsync() throws Exception {
+        Path a = write("a", "content", 1000);
+
+        assertEquals(ContentHashes.get(a), ContentHashes.getAsync(a).get());
+        assertNull(ContentHashes.getAsync(dir.resolve("missing")).get());
+    }
+
+    private Path write(String name, String content, long lastModified) throws Exception {
+        Path path = dir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModified));
+        return path;
+    }
+
+}
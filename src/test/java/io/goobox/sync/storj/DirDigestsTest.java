@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.File;
+
+public class DirDigestsTest {
+
+    @Test
+    public void cloudOrderDoesNotMatter() throws Exception {
+        Map<String, String> digests = DirDigests.cloud(CloudFile.of(new File[] {
+                StorjMock.FILE_1, StorjMock.DIR, StorjMock.SUB_FILE }));
+        Map<String, String> reordered = DirDigests.cloud(CloudFile.of(new File[] {
+                StorjMock.SUB_FILE, StorjMock.DIR, StorjMock.FILE_1 }));
+
+        assertEquals(digests, reordered);
+    }
+
+    @Test
+    public void cloudChangePropagatesToAncestors() throws Exception {
+        Map<String, String> digests = DirDigests.cloud(CloudFile.of(new File[] {
+                StorjMock.FILE_1, StorjMock.DIR, StorjMock.SUB_DIR, StorjMock.SUB_FILE }));
+        File modified = new File("sub-file-id", StorjMock.BUCKET.getId(), "dir-name/sub-file-name",
+                "2017-12-05T10:00:00.000Z", true, 2455, null, null, null, null);
+        Map<String, String> changed = DirDigests.cloud(CloudFile.of(new File[] {
+                StorjMock.FILE_1, StorjMock.DIR, StorjMock.SUB_DIR, modified }));
+
+        assertNotEquals(digests.get(DirDigests.ROOT), changed.get(DirDigests.ROOT));
+        assertNotEquals(digests.get("dir-name"), changed.get("dir-name"));
+        assertEquals(digests.get("dir-name/sub-dir-name"), changed.get("dir-name/sub-dir-name"));
+    }
+
+    @Test
+    public void cloudDirsWithoutEntry() throws Exception {
+        Map<String, String> digests = DirDigests.cloud(CloudFile.of(new File[] { StorjMock.SUB_SUB_FILE }));
+
+        assertEquals(3, digests.size());
+        assertNotNull(digests.get("dir-name/sub-dir-name"));
+    }
+
+    @Test
+    public void combineOnlyDirsOnBothSides() throws Exception {
+        Map<String, String> local = new HashMap<>();
+        local.put(DirDigests.ROOT, "a");
+        local.put("dir-name", "b");
+        Map<String, String> cloud = new HashMap<>();
+        cloud.put(DirDigests.ROOT, "c");
+
+        Map<String, String> combined = DirDigests.combine(local, cloud);
+
+        assertEquals(1, combined.size());
+        assertNull(combined.get("dir-name"));
+        assertNotEquals(DirDigests.combine(local, local).get(DirDigests.ROOT), combined.get(DirDigests.ROOT));
+    }
+
+}
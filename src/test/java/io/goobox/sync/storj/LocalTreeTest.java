@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.FilesMock;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class LocalTreeTest {
+
+    private Path syncDir;
+    private LocalTree tree;
+
+    @Before
+    public void setup() {
+        new AppMock();
+        syncDir = App.getInstance().getSyncDir();
+        tree = new LocalTree(syncDir, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void fullScanOnStartup() throws Exception {
+        new FilesMock(FileMock.FILE_1, FileMock.DIR, FileMock.SUB_FILE);
+
+        assertTrue(tree.update(new DirtyPaths(syncDir)));
+        assertPaths(FileMock.FILE_1, FileMock.DIR, FileMock.SUB_FILE);
+    }
+
+    @Test
+    public void fullScanOnOverflow() throws Exception {
+        new FilesMock(FileMock.FILE_1);
+        tree.update(new DirtyPaths(syncDir));
+
+        DirtyPaths dirtyPaths = new DirtyPaths(syncDir);
+        dirtyPaths.setOverflow();
+
+        assertTrue(tree.update(dirtyPaths));
+    }
+
+    @Test
+    public void newFileInNewDir() throws Exception {
+        FilesMock filesMock = new FilesMock(FileMock.FILE_1);
+        tree.update(new DirtyPaths(syncDir));
+
+        filesMock.addFile(FileMock.DIR);
+        filesMock.addFile(FileMock.SUB_FILE);
+        DirtyPaths dirtyPaths = new DirtyPaths(syncDir);
+        // only the dir event, the file is picked up when the dir is listed
+        dirtyPaths.add(FileMock.DIR.getPath());
+
+        assertFalse(tree.update(dirtyPaths));
+        assertPaths(FileMock.FILE_1, FileMock.DIR, FileMock.SUB_FILE);
+        assertTrue(dirtyPaths.contains(FileMock.SUB_FILE.getPath()));
+        assertFalse(dirtyPaths.contains(FileMock.FILE_1.getPath()));
+    }
+
+    @Test
+    public void deletedDir() throws Exception {
+        new FilesMock(FileMock.FILE_1, FileMock.DIR, FileMock.SUB_FILE);
+        tree.update(new DirtyPaths(syncDir));
+
+        Files.deleteIfExists(FileMock.SUB_FILE.getPath());
+        Files.deleteIfExists(FileMock.DIR.getPath());
+        DirtyPaths dirtyPaths = new DirtyPaths(syncDir);
+        dirtyPaths.add(FileMock.DIR.getPath());
+
+        assertFalse(tree.update(dirtyPaths));
+        assertPaths(FileMock.FILE_1);
+    }
+
+    @Test
+    public void changeWithoutEventNotSeen() throws Exception {
+        FilesMock filesMock = new FilesMock(FileMock.FILE_1);
+        tree.update(new DirtyPaths(syncDir));
+
+        filesMock.addFile(FileMock.FILE_2);
+
+        assertFalse(tree.update(new DirtyPaths(syncDir)));
+        assertPaths(FileMock.FILE_1);
+    }
+
+    @Test
+    public void fullScanAfterInterval() throws Exception {
+        tree = new LocalTree(syncDir, 0);
+        FilesMock filesMock = new FilesMock(FileMock.FILE_1);
+        tree.update(new DirtyPaths(syncDir));
+
+        filesMock.addFile(FileMock.FILE_2);
+
+        assertTrue(tree.update(new DirtyPaths(syncDir)));
+        assertPaths(FileMock.FILE_1, FileMock.FILE_2);
+    }
+
+    @Test
+    public void dirtyPathMarksAncestors() throws Exception {
+        DirtyPaths dirtyPaths = new DirtyPaths(syncDir);
+        dirtyPaths.add(FileMock.SUB_SUB_FILE.getPath());
+
+        assertTrue(dirtyPaths.contains(FileMock.SUB_SUB_FILE.getPath()));
+        assertTrue(dirtyPaths.contains(FileMock.SUB_DIR.getPath()));
+        assertTrue(dirtyPaths.contains(FileMock.DIR.getPath()));
+        assertFalse(dirtyPaths.contains(FileMock.SUB_FILE.getPath()));
+        assertEquals(new HashSet<>(Arrays.asList(syncDir, FileMock.DIR.getPath(), FileMock.SUB_DIR.getPath())),
+                dirtyPaths.getDirs());
+    }
+
+    private void assertPaths(FileMock... files) {
+        HashSet<Path> expected = new HashSet<>();
+        for (FileMock file : files) {
+            expected.add(file.getPath());
+        }
+        HashSet<Path> actual = new HashSet<>();
+        for (LocalFile file : tree.getFiles()) {
+            actual.add(file.getPath());
+        }
+        assertEquals(expected, actual);
+    }
+
+}
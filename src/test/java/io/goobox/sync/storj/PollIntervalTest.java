@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PollIntervalTest {
+
+    @Test
+    public void backOffWhileUnchanged() {
+        PollInterval poll = new PollInterval(TimeUnit.MINUTES.toMillis(5));
+        assertEquals(PollInterval.DEFAULT_INTERVAL, poll.getInterval());
+
+        poll.onCheck("a");
+        assertEquals(PollInterval.DEFAULT_INTERVAL, poll.getInterval());
+
+        poll.onCheck("a");
+        assertEquals(TimeUnit.MINUTES.toMillis(2), poll.getInterval());
+        poll.onCheck("a");
+        assertEquals(TimeUnit.MINUTES.toMillis(4), poll.getInterval());
+        poll.onCheck("a");
+        assertEquals(TimeUnit.MINUTES.toMillis(5), poll.getInterval());
+        poll.onCheck("a");
+        assertEquals(TimeUnit.MINUTES.toMillis(5), poll.getInterval());
+    }
+
+    @Test
+    public void resetOnChange() {
+        PollInterval poll = new PollInterval(TimeUnit.MINUTES.toMillis(5));
+        poll.onCheck("a");
+        poll.onCheck("a");
+        poll.onCheck("b");
+        assertEquals(PollInterval.MIN_INTERVAL, poll.getInterval());
+
+        poll.onCheck("b");
+        assertEquals(2 * PollInterval.MIN_INTERVAL, poll.getInterval());
+    }
+
+    @Test
+    public void minimumSpacing() {
+        PollInterval poll = new PollInterval(0);
+        assertEquals(PollInterval.MIN_INTERVAL, poll.getInterval());
+
+        long before = System.currentTimeMillis();
+        poll.onCheck("a");
+        long after = System.currentTimeMillis();
+        long earliest = poll.getEarliestCheck();
+        assertTrue(earliest >= before + PollInterval.MIN_INTERVAL);
+        assertTrue(earliest <= after + PollInterval.MIN_INTERVAL);
+    }
+
+    @Test
+    public void nextCheckAfterInterval() {
+        PollInterval poll = new PollInterval(TimeUnit.MINUTES.toMillis(5));
+        poll.onCheck("a");
+        poll.onCheck("a");
+
+        assertEquals(poll.getInterval(), poll.getNextCheck() - poll.getEarliestCheck() + PollInterval.MIN_INTERVAL);
+    }
+
+}
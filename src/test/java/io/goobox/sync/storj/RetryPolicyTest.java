@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.goobox.sync.storj.RetryPolicy.Operation;
+import io.storj.libstorj.Storj;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(new Random(42));
+
+    @Test
+    public void retryableErrors() {
+        assertTrue(policy.isRetryable(Operation.UPLOAD, Storj.CURLE_COULDNT_CONNECT));
+        assertTrue(policy.isRetryable(Operation.GET_FILE_ID, Storj.HTTP_TOO_MANY_REQUESTS));
+        assertFalse(policy.isRetryable(Operation.DOWNLOAD, Storj.HTTP_NOT_FOUND));
+        assertFalse(policy.isRetryable(Operation.UPLOAD, Storj.STORJ_BRIDGE_BUCKET_FILE_EXISTS));
+        assertTrue(policy.isRetryable(Operation.CREATE_DIR, Storj.STORJ_BRIDGE_BUCKET_FILE_EXISTS));
+
+        assertEquals(-1, policy.getRetryDelay(Operation.DELETE_FILE, Storj.HTTP_UNAUTHORIZED, 1, 0));
+    }
+
+    @Test
+    public void jitterWithinBound() {
+        for (int attempts = 1; attempts <= 30; attempts++) {
+            long bound = Math.min(RetryPolicy.MAX_DELAY, RetryPolicy.BASE_DELAY << Math.min(attempts - 1, 20));
+            long overloadBound = Math.min(RetryPolicy.MAX_DELAY,
+                    RetryPolicy.OVERLOAD_BASE_DELAY << Math.min(attempts - 1, 20));
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getBackoff(Storj.CURLE_COULDNT_CONNECT, attempts);
+                assertTrue(delay >= 0 && delay <= bound);
+
+                delay = policy.getBackoff(Storj.HTTP_SERVICE_UNAVAILABLE, attempts);
+                assertTrue(delay >= 0 && delay <= overloadBound);
+            }
+        }
+    }
+
+    @Test
+    public void jitterSpread() {
+        // full jitter - the delays are not all close to the bound
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getBackoff(Storj.CURLE_COULDNT_CONNECT, 5);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min < 16 * RetryPolicy.BASE_DELAY / 4);
+        assertTrue(max > 16 * RetryPolicy.BASE_DELAY * 3 / 4);
+    }
+
+    @Test
+    public void budget() {
+        int max = Operation.UPLOAD.getMaxAttempts();
+        assertTrue(policy.getRetryDelay(Operation.UPLOAD, Storj.CURLE_COULDNT_CONNECT, max - 1, 0) >= 0);
+        assertEquals(-1, policy.getRetryDelay(Operation.UPLOAD, Storj.CURLE_COULDNT_CONNECT, max, 0));
+    }
+
+    @Test
+    public void deadline() {
+        long deadline = Operation.GET_FILE.getDeadline();
+        assertEquals(-1, policy.getRetryDelay(Operation.GET_FILE, Storj.CURLE_COULDNT_CONNECT, 1, deadline));
+        assertTrue(policy.getRetryDelay(Operation.GET_FILE, Storj.CURLE_COULDNT_CONNECT, 1,
+                deadline - TimeUnit.MINUTES.toMillis(1)) >= 0);
+    }
+
+    @Test
+    public void listingWithoutLimits() {
+        for (int attempts = 1; attempts < 1000; attempts *= 10) {
+            assertTrue(policy.getRetryDelay(Operation.LIST_FILES, Storj.CURLE_COULDNT_CONNECT, attempts,
+                    TimeUnit.DAYS.toMillis(1)) >= 0);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.db.SyncFile;
+import io.goobox.sync.storj.db.SyncState;
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.File;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SortMergeTest {
+
+    @BeforeClass
+    public static void applySharedFakes() {
+        new AppMock();
+    }
+
+    @Test
+    public void spillAndMergeRuns() throws Exception {
+        try (ExternalSorter<Integer> sorter = new ExternalSorter<>(new IntCodec(), 1024)) {
+            for (int i = 999; i >= 0; i--) {
+                sorter.add(String.format("key-%03d", i % 500), i);
+            }
+            assertTrue(sorter.getRunCount() > 1);
+
+            Iterator<Map.Entry<String, Integer>> sorted = sorter.sorted();
+            for (int i = 0; i < 500; i++) {
+                // values with equal keys keep the order they were added in
+                assertEquals(Integer.valueOf(i + 500), sorted.next().getValue());
+                assertEquals(Integer.valueOf(i), sorted.next().getValue());
+            }
+            assertFalse(sorted.hasNext());
+        }
+    }
+
+    @Test
+    public void mergeRunsInPasses() throws Exception {
+        try (ExternalSorter<Integer> sorter = new ExternalSorter<>(new IntCodec(), 1024, 2)) {
+            for (int i = 999; i >= 0; i--) {
+                sorter.add(String.format("key-%03d", i % 500), i);
+            }
+            assertTrue(sorter.getRunCount() > 2);
+
+            Iterator<Map.Entry<String, Integer>> sorted = sorter.sorted();
+            // no more runs than read at the same time
+            assertTrue(sorter.getRunCount() <= 2);
+            for (int i = 0; i < 500; i++) {
+                assertEquals(Integer.valueOf(i + 500), sorted.next().getValue());
+                assertEquals(Integer.valueOf(i), sorted.next().getValue());
+            }
+            assertFalse(sorted.hasNext());
+        }
+    }
+
+    @Test
+    public void joinByName() throws Exception {
+        final List<String> rows = new ArrayList<>();
+
+        SyncFile syncFile = new SyncFile();
+        syncFile.setName("file-2-name");
+        syncFile.setState(SyncState.SYNCED);
+
+        try (SortMerge merge = new SortMerge(1024)) {
+            merge.addCloudFiles(CloudFile.of(new File[] { StorjMock.SUB_FILE, StorjMock.FILE_1, StorjMock.DIR }));
+            merge.addLocalFile(FileMock.DIR.toLocalFile());
+            merge.addLocalFile(FileMock.FILE_2.toLocalFile());
+            merge.addSyncFile(syncFile);
+
+            merge.join((name, cloudFiles, localFile, sync) -> {
+                StringBuilder row = new StringBuilder(name);
+                for (CloudFile file : cloudFiles) {
+                    row.append(" cloud:").append(file.getId());
+                }
+                if (localFile != null) {
+                    row.append(" local:").append(localFile.isDirectory() ? "dir" : localFile.getSize());
+                }
+                if (sync != null) {
+                    row.append(" db:").append(sync.getState());
+                }
+                rows.add(row.toString());
+            });
+        }
+
+        assertEquals(Arrays.asList(
+                "dir-name cloud:dir-id local:dir",
+                "dir-name/sub-file-name cloud:sub-file-id",
+                "file-1-name cloud:file-1-id",
+                "file-2-name local:983249 db:SYNCED"), rows);
+    }
+
+    private static class IntCodec implements ExternalSorter.Codec<Integer> {
+
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+
+    }
+
+}
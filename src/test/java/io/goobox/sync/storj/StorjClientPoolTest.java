@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.Bucket;
+import io.storj.libstorj.ListFilesCallback;
+import io.storj.libstorj.Storj;
+import mockit.Mock;
+import mockit.MockUp;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class StorjClientPoolTest {
+
+    @Test
+    public void idleClientsInTurn() {
+        new StorjMock();
+        StorjClientPool pool = new StorjClientPool(new Storj(), new Storj());
+
+        StorjClient first = pool.get();
+        StorjClient second = pool.get();
+        assertNotSame(first, second);
+        assertSame(first, pool.get());
+    }
+
+    @Test
+    public void leastInFlight() {
+        new StorjMock();
+        new MockUp<Storj>() {
+            @Mock
+            public void listFiles(Bucket bucket, ListFilesCallback callback) {
+                // no callback - the call stays in flight
+            }
+        };
+        StorjClientPool pool = new StorjClientPool(new Storj(), new Storj());
+
+        StorjClient busy = pool.get();
+        busy.listFiles(StorjMock.BUCKET);
+
+        assertEquals(1, busy.getInFlight());
+        assertNotSame(busy, pool.get());
+        assertNotSame(busy, pool.get());
+        assertEquals(1, pool.getInFlight());
+        assertEquals(1, pool.getInFlightPerClient()[0] + pool.getInFlightPerClient()[1]);
+    }
+
+    @Test
+    public void completedCallsAreNotInFlight() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        StorjClientPool pool = new StorjClientPool(new Storj());
+
+        StorjClient.await(pool.get().getFileId(StorjMock.BUCKET, StorjMock.FILE_1.getName()));
+
+        assertEquals(0, pool.getInFlight());
+    }
+
+}
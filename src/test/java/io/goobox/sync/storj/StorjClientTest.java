@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.Storj;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class StorjClientTest {
+
+    @Test
+    public void fileId() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        StorjClient client = new StorjClient(new Storj());
+
+        assertEquals(StorjMock.FILE_1.getId(),
+                StorjClient.await(client.getFileId(StorjMock.BUCKET, StorjMock.FILE_1.getName())));
+        assertNull(StorjClient.await(client.getFileId(StorjMock.BUCKET, StorjMock.FILE_2.getName())));
+    }
+
+    @Test
+    public void errorCode() throws Exception {
+        new StorjMock();
+        StorjClient client = new StorjClient(new Storj());
+
+        try {
+            StorjClient.await(client.getFile(StorjMock.BUCKET, StorjMock.FILE_1.getId()));
+            fail();
+        } catch (StorjException e) {
+            assertEquals(Storj.HTTP_NOT_FOUND, e.getCode());
+        }
+    }
+
+    @Test
+    public void completionExecutor() throws Exception {
+        new StorjMock(StorjMock.FILE_1);
+        List<Runnable> completions = new ArrayList<>();
+        StorjClient client = new StorjClient(new Storj(), completions::add);
+
+        CompletableFuture<String> future = client.getFileId(StorjMock.BUCKET, StorjMock.FILE_1.getName());
+
+        // the callback returned without completing the future
+        assertFalse(future.isDone());
+        assertEquals(1, completions.size());
+
+        completions.get(0).run();
+        assertEquals(StorjMock.FILE_1.getId(), future.get());
+    }
+
+    @Test
+    public void noRetry() throws Exception {
+        new StorjMock();
+        final StorjClient client = new StorjClient(new Storj());
+        final AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<Void> future = client.retry(RetryPolicy.Operation.DELETE_FILE, () -> {
+            calls.incrementAndGet();
+            return client.deleteFile(StorjMock.BUCKET, StorjMock.FILE_1);
+        }, e -> fail());
+
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(1, calls.get());
+        assertEquals("file not found (" + Storj.HTTP_NOT_FOUND + ")", StorjClient.getErrorMessage(
+                future.handle((result, e) -> e).join()));
+    }
+
+    @Test
+    public void deadlineFromFirstFailure() throws Exception {
+        new StorjMock();
+        final StorjClient client = new StorjClient(new Storj());
+        final List<Long> elapsed = new ArrayList<>();
+        RetryPolicy policy = new RetryPolicy() {
+            @Override
+            public long getRetryDelay(Operation operation, int code, int attempts, long sinceFirstFailure) {
+                elapsed.add(sinceFirstFailure);
+                return -1;
+            }
+        };
+
+        CompletableFuture<Void> future = client.retry(policy, RetryPolicy.Operation.UPLOAD, () -> {
+            // a transfer that runs for a while before it fails
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            CompletableFuture<Void> transfer = new CompletableFuture<>();
+            transfer.completeExceptionally(new StorjException(Storj.CURLE_COULDNT_CONNECT, "connection lost"));
+            return transfer;
+        }, e -> fail());
+
+        assertTrue(future.isCompletedExceptionally());
+        assertEquals(1, elapsed.size());
+        // the time the attempt ran does not count against the deadline
+        assertTrue(elapsed.get(0) < 200);
+    }
+
+    @Test
+    public void retriedCallThrows() throws Exception {
+        new StorjMock();
+        final StorjClient client = new StorjClient(new Storj());
+        final AtomicInteger calls = new AtomicInteger();
+        RetryPolicy policy = new RetryPolicy() {
+            @Override
+            public long getRetryDelay(Operation operation, int code, int attempts, long elapsed) {
+                return 0;
+            }
+        };
+
+        CompletableFuture<Void> future = client.retry(policy, RetryPolicy.Operation.DELETE_FILE, () -> {
+            if (calls.incrementAndGet() == 1) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new StorjException(Storj.HTTP_SERVICE_UNAVAILABLE, "unavailable"));
+                return failed;
+            }
+            // the next attempt runs on the retry timer
+            throw new IllegalStateException("no keys");
+        }, e -> { });
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void cancelRetry() throws Exception {
+        new StorjMock();
+        final StorjClient client = new StorjClient(new Storj());
+        final List<CompletableFuture<Void>> attempts = new ArrayList<>();
+
+        CompletableFuture<Void> future = client.retry(RetryPolicy.Operation.UPLOAD, () -> {
+            // a transfer still running
+            CompletableFuture<Void> transfer = new CompletableFuture<>();
+            attempts.add(transfer);
+            return transfer;
+        }, e -> fail());
+
+        assertTrue(future.cancel(false));
+
+        assertEquals(1, attempts.size());
+        assertTrue(attempts.get(0).isCancelled());
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.File;
+
+public class StorjUtilTest {
+
+    @Test
+    public void getTime() throws Exception {
+        assertEquals(0, StorjUtil.getTime("1970-01-01T00:00:00.000Z"));
+        assertEquals(1510249874123L, StorjUtil.getTime("2017-11-09T17:51:14.123Z"));
+        // leap day
+        assertEquals(951782400000L, StorjUtil.getTime("2000-02-29T00:00:00.000Z"));
+        // no or longer fraction
+        assertEquals(1510249874000L, StorjUtil.getTime("2017-11-09T17:51:14Z"));
+        assertEquals(1510249874123L, StorjUtil.getTime("2017-11-09T17:51:14.123456Z"));
+    }
+
+    @Test
+    public void getTimeSameAsDateFormat() throws Exception {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String timestamp = sdf.format(new Date((long) (random.nextDouble() * 4102444800000L)));
+            assertEquals(timestamp, sdf.parse(timestamp).getTime(), StorjUtil.getTime(timestamp));
+        }
+    }
+
+    @Test
+    public void getTimeInvalid() {
+        for (String timestamp : new String[] { "", "2017-11-09", "2017-11-09T17:51:14.123",
+                "2017-13-09T17:51:14.123Z", "2017-11-09T17:51:14.Z", "2017-11-09 17:51:14.123Z",
+                "2017-11-O9T17:51:14.123Z" }) {
+            try {
+                StorjUtil.getTime(timestamp);
+                fail(timestamp);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Measures the ingest of a cloud listing before and after the conversion
+     * into records: a check used to parse the created time of each file with
+     * a date format every time it was read, about three times per file, and
+     * now the listing is converted once with the own parser.
+     */
+    @Test
+    @Category(SlowTests.class)
+    public void ingestListing() throws Exception {
+        int size = 100000;
+        File[] files = new File[size];
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            String created = sdf.format(new Date((long) (random.nextDouble() * 4102444800000L)));
+            files[i] = new File("id-" + i, StorjMock.BUCKET.getId(), "dir-" + (i % 1000) + "/file-" + i, created,
+                    true, i, null, null, null, null);
+        }
+
+        long before = Long.MAX_VALUE;
+        long after = Long.MAX_VALUE;
+        // the first runs warm up the JIT
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (File file : files) {
+                for (int read = 0; read < 3; read++) {
+                    sum += sdf.parse(file.getCreated()).getTime();
+                }
+            }
+            before = Math.min(before, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            long sumAfter = 0;
+            for (CloudFile file : CloudFile.of(files)) {
+                for (int read = 0; read < 3; read++) {
+                    sumAfter += file.getCreatedTime();
+                }
+            }
+            after = Math.min(after, System.nanoTime() - start);
+            assertEquals(sum, sumAfter);
+        }
+
+        System.out.printf("Ingest of %d cloud files: %d ns per file before, %d ns per file after%n",
+                size, before / size, after / size);
+        assertTrue("ingest took " + after + " ns, parsing on each read " + before + " ns", after < before);
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.File;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SyncIndexTest {
+
+    @BeforeClass
+    public static void applySharedFakes() {
+        new AppMock();
+    }
+
+    @Test
+    public void matchByName() throws Exception {
+        SyncIndex index = new SyncIndex(
+                CloudFile.of(new File[] { StorjMock.FILE_1, StorjMock.DIR, StorjMock.SUB_FILE }),
+                Arrays.asList(FileMock.FILE_2.toLocalFile(), FileMock.DIR.toLocalFile(),
+                        FileMock.SUB_FILE.toLocalFile()));
+
+        assertNull(index.getLocalFile(new CloudFile(StorjMock.FILE_1).getName()));
+        assertEquals(FileMock.DIR.getPath(), index.getLocalFile(new CloudFile(StorjMock.DIR).getName()).getPath());
+        assertEquals(FileMock.SUB_FILE.getPath(),
+                index.getLocalFile(new CloudFile(StorjMock.SUB_FILE).getName()).getPath());
+
+        assertTrue(index.contains("file-1-name"));
+        assertTrue(index.contains("file-2-name"));
+        assertTrue(index.contains("dir-name"));
+        assertTrue(index.contains("dir-name/sub-file-name"));
+        assertFalse(index.contains("dir-name/sub-dir-name"));
+    }
+
+    @Test
+    public void keepsWalkOrder() throws Exception {
+        LocalFile subFile = FileMock.SUB_FILE.toLocalFile();
+        LocalFile file = FileMock.FILE_1.toLocalFile();
+        LocalFile dir = FileMock.DIR.toLocalFile();
+        SyncIndex index = new SyncIndex(new CloudFile[0], Arrays.asList(subFile, file, dir));
+
+        assertEquals(Arrays.asList(subFile, file, dir), new ArrayList<>(index.getLocalFiles()));
+    }
+
+    @Test
+    public void joinShuffledNames() throws Exception {
+        int size = 3000;
+        CloudFile[] files = new CloudFile[size];
+        List<LocalFile> locals = new ArrayList<>(size);
+        List<String> dbNames = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) {
+            String name = "dir-" + (i % 100) + "/file-" + i;
+            // mix of names only in the cloud, only local, and on both sides
+            files[i] = new CloudFile(new File("id-" + i, StorjMock.BUCKET.getId(),
+                    i % 2 == 0 ? name : name + "-cloud", "2017-11-09T17:51:14.123Z", true, i, null, null, null, null));
+            locals.add(new FileMock(i % 3 == 0 ? name : name + "-local", i, i, false).toLocalFile());
+            dbNames.add(name);
+        }
+        Collections.shuffle(locals);
+
+        SyncIndex index = new SyncIndex(files, locals);
+
+        // the DB name is in the cloud for even and local for multiples of 3
+        int known = 0;
+        for (String name : dbNames) {
+            if (index.contains(name)) {
+                known++;
+            }
+        }
+        assertEquals(size - size / 3, known);
+
+        int matched = 0;
+        for (CloudFile file : files) {
+            LocalFile local = index.getLocalFile(file.getName());
+            if (local != null) {
+                assertEquals(file.getName(), local.getName());
+                matched++;
+            }
+        }
+        assertEquals(size / 6, matched);
+        assertEquals(size, index.getLocalFiles().size());
+    }
+
+    /**
+     * The time per entry of indexing and joining grows at most slightly from
+     * 10k to 1M entries, where a quadratic join would take 100 times longer
+     * per entry. 1k entries are measured for the record only, they are too
+     * few to time reliably.
+     */
+    @Test
+    @Category(SlowTests.class)
+    public void linearScaling() throws Exception {
+        int[] sizes = { 1000, 10000, 100000, 1000000 };
+        double[] nanosPerEntry = new double[sizes.length];
+
+        // warm up the JIT
+        timeJoin(sizes[1]);
+        for (int i = 0; i < sizes.length; i++) {
+            nanosPerEntry[i] = (double) timeJoin(sizes[i]) / sizes[i];
+            System.out.printf("SyncIndex join of %d entries: %.0f ns per entry%n", sizes[i], nanosPerEntry[i]);
+        }
+
+        assertTrue("time per entry grew from " + nanosPerEntry[1] + " to " + nanosPerEntry[3] + " ns",
+                nanosPerEntry[3] < 10 * nanosPerEntry[1]);
+    }
+
+    /**
+     * Returns the shortest of three runs of indexing and joining the given
+     * number of cloud and local files, in nanoseconds.
+     */
+    private static long timeJoin(int size) {
+        CloudFile[] files = new CloudFile[size];
+        List<LocalFile> locals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String name = "dir-" + (i % 1000) + "/file-" + i;
+            files[i] = new CloudFile(new File("id-" + i, StorjMock.BUCKET.getId(), name, "2017-11-09T17:51:14.123Z",
+                    true, i, null, null, null, null), i);
+            locals.add(new LocalFile(FileMock.FILE_1.getPath().resolveSibling(name), false, i, i));
+        }
+        Collections.shuffle(locals);
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            SyncIndex index = new SyncIndex(files, locals);
+            int matched = 0;
+            for (CloudFile file : files) {
+                if (index.getLocalFile(file.getName()) != null) {
+                    matched++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(size, matched);
+        }
+        return best;
+    }
+
+}
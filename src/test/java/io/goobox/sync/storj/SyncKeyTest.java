@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.StorjMock;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SyncKeyTest {
+
+    @BeforeClass
+    public static void applySharedFakes() {
+        new AppMock();
+    }
+
+    @Test
+    public void fromPath() {
+        Path dir = App.getInstance().getSyncDir().resolve("dir-name");
+        SyncKey dirKey = SyncKey.of(dir, true);
+        SyncKey fileKey = SyncKey.of(dir.resolve("sub-file-name"), false);
+
+        assertEquals("dir-name", dirKey.getName());
+        assertEquals("dir-name/", dirKey.getStorjName());
+        assertTrue(dirKey.isDirectory());
+
+        assertEquals("dir-name/sub-file-name", fileKey.getName());
+        assertEquals("dir-name/sub-file-name", fileKey.getStorjName());
+        assertFalse(fileKey.isDirectory());
+    }
+
+    @Test
+    public void fromStorjName() {
+        assertEquals(SyncKey.of(FileMock.DIR.getPath(), true), SyncKey.of(StorjMock.DIR));
+        assertEquals(SyncKey.of(FileMock.SUB_FILE.getPath(), false), SyncKey.of(StorjMock.SUB_FILE));
+        assertEquals("dir-name", SyncKey.of("dir-name//").getName());
+    }
+
+    @Test
+    public void directoryFlag() {
+        SyncKey file = SyncKey.of("name");
+        SyncKey dir = SyncKey.of("name/");
+
+        assertNotEquals(file, dir);
+        assertEquals(file.getName(), dir.getName());
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.SyncAction.Type;
+import io.goobox.sync.storj.db.SyncSnapshot;
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.StorjMock;
+import io.storj.libstorj.File;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class SyncPlannerTest {
+
+    @BeforeClass
+    public static void applySharedFakes() {
+        new AppMock();
+    }
+
+    @Test
+    public void newFiles() throws Exception {
+        SyncIndex index = new SyncIndex(CloudFile.of(new File[] { StorjMock.FILE_1 }),
+                Arrays.asList(FileMock.FILE_2.toLocalFile()));
+
+        SyncPlan plan = planner().plan(index, new SyncSnapshot());
+
+        List<SyncAction> actions = plan.getActions();
+        assertEquals(2, actions.size());
+        assertEquals(Type.ADD_FOR_DOWNLOAD, actions.get(0).getType());
+        assertEquals("file-1-name", actions.get(0).getName());
+        assertEquals(Type.ADD_FOR_UPLOAD, actions.get(1).getType());
+        assertEquals("file-2-name", actions.get(1).getName());
+        assertTrue(plan.isSynchronizing());
+        assertTrue(plan.getUncleanDirs().contains(DirDigests.ROOT));
+    }
+
+    @Test
+    public void inSync() throws Exception {
+        LocalFile localFile = FileMock.FILE_1.toLocalFile();
+        SyncSnapshot records = new SyncSnapshot();
+        records.setSynced(new CloudFile(StorjMock.FILE_1), localFile);
+
+        SyncPlan plan = planner().plan(new SyncIndex(CloudFile.of(new File[] { StorjMock.FILE_1 }), Arrays.asList(localFile)),
+                records);
+
+        assertTrue(plan.getActions().isEmpty());
+        assertFalse(plan.isSynchronizing());
+        assertTrue(plan.getUncleanDirs().isEmpty());
+    }
+
+    @Test
+    public void deletedOnBothSides() throws Exception {
+        SyncSnapshot records = new SyncSnapshot();
+        records.setSynced(new CloudFile(StorjMock.FILE_1), FileMock.FILE_1.toLocalFile());
+
+        SyncPlan plan = planner().plan(new SyncIndex(new CloudFile[0], Collections.<LocalFile> emptyList()), records);
+
+        assertEquals(1, plan.getActions().size());
+        assertEquals(Type.REMOVE, plan.getActions().get(0).getType());
+        assertFalse(plan.isSynchronizing());
+    }
+
+    @Test
+    public void sameSizeWithoutRecord() throws Exception {
+        SyncIndex index = new SyncIndex(CloudFile.of(new File[] { StorjMock.FILE_1 }),
+                Arrays.asList(FileMock.FILE_1.toLocalFile()));
+
+        SyncPlan plan = planner().plan(index, new SyncSnapshot());
+
+        assertEquals(1, plan.getActions().size());
+        assertEquals(Type.SET_CONFLICT, plan.getActions().get(0).getType());
+        assertFalse(plan.isSynchronizing());
+    }
+
+    @Test
+    public void inSyncWithSameHmac() throws Exception {
+        File file = new File("file-1-id", StorjMock.BUCKET.getId(), "file-1-name", "2017-11-09T17:51:14.123Z", true,
+                12345, null, null, null, "file-1-hmac");
+        File recreated = new File("file-1-id", StorjMock.BUCKET.getId(), "file-1-name", "2017-11-15T11:43:20.622Z",
+                true, 12345, null, null, null, "file-1-hmac");
+        LocalFile localFile = FileMock.FILE_1.toLocalFile();
+        SyncSnapshot records = new SyncSnapshot();
+        records.setSynced(new CloudFile(file), localFile);
+
+        SyncPlan plan = planner().plan(new SyncIndex(CloudFile.of(new File[] { recreated }), Arrays.asList(localFile)),
+                records);
+
+        assertTrue(plan.getActions().isEmpty());
+        assertTrue(plan.getUncleanDirs().isEmpty());
+    }
+
+    private SyncPlanner planner() {
+        return new SyncPlanner(null, Collections.<String> emptySet());
+    }
+
+}
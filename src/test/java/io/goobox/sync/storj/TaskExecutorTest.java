@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TaskExecutorTest {
+
+    @Test
+    public void failedTaskDoesNotStopDispatching() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        CountDownLatch done = new CountDownLatch(1);
+        tasks.add(() -> {
+            throw new IllegalStateException("broken");
+        });
+        tasks.add(done::countDown);
+
+        TaskExecutor executor = new TaskExecutor(tasks, new EnumMap<Workload, StorjExecutorService>(Workload.class),
+                new EnumMap<Workload, ConcurrencyLimit>(Workload.class), new CircuitBreaker());
+        executor.setDaemon(true);
+        executor.start();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.goobox.sync.storj.mocks.AppMock;
+import io.goobox.sync.storj.mocks.FileMock;
+import io.goobox.sync.storj.mocks.StorjMock;
+import mockit.integration.junit4.JMockit;
+
+@RunWith(JMockit.class)
+public class TaskQueueTest {
+
+    @BeforeClass
+    public static void applySharedFakes() {
+        new AppMock();
+    }
+
+    @Test
+    public void singleCheckStateTask() {
+        TaskQueue tasks = new TaskQueue();
+
+        assertTrue(tasks.add(new CheckStateTask()));
+        assertFalse(tasks.add(new CheckStateTask()));
+        assertEquals(1, tasks.size());
+
+        assertTrue(tasks.poll() instanceof CheckStateTask);
+        assertTrue(tasks.add(new CheckStateTask()));
+    }
+
+    @Test
+    public void sameFileReplacesPendingTask() {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask otherUpload = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+        DeleteCloudFileTask delete = new DeleteCloudFileTask(StorjMock.BUCKET, StorjMock.FILE_1);
+
+        tasks.add(upload);
+        tasks.add(otherUpload);
+        tasks.add(new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath()));
+        tasks.add(delete);
+
+        // the last task for the file keeps the place of the first one
+        assertEquals(2, tasks.size());
+        assertSame(delete, tasks.poll());
+        assertSame(otherUpload, tasks.poll());
+        assertNull(tasks.poll());
+    }
+
+    @Test
+    public void taskAfterDequeueIsQueuedAgain() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        DeleteLocalFileTask delete = new DeleteLocalFileTask(FileMock.FILE_1.getPath());
+        DownloadFileTask download = new DownloadFileTask(StorjMock.BUCKET, StorjMock.FILE_1);
+
+        tasks.add(delete);
+        assertSame(delete, tasks.take());
+
+        tasks.add(download);
+        assertSame(download, tasks.poll(1, TimeUnit.SECONDS));
+        assertNull(tasks.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void smallestFirst() {
+        TaskQueue tasks = new TaskQueue(TaskPolicy.SMALLEST_FIRST);
+        UploadFileTask big = new UploadFileTask(StorjMock.BUCKET, bigFile());
+        UploadFileTask small = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.toLocalFile());
+        DeleteCloudFileTask delete = new DeleteCloudFileTask(StorjMock.BUCKET, StorjMock.SUB_FILE);
+
+        tasks.add(big);
+        tasks.add(small);
+        tasks.add(delete);
+        tasks.add(new CheckStateTask());
+
+        // metadata first, the check after everything queued before it
+        assertSame(delete, tasks.poll());
+        assertSame(small, tasks.poll());
+        assertSame(big, tasks.poll());
+        assertTrue(tasks.poll() instanceof CheckStateTask);
+    }
+
+    @Test
+    public void delayIsLimited() {
+        UploadFileTask big = new UploadFileTask(StorjMock.BUCKET, bigFile());
+        UploadFileTask old = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.toLocalFile());
+        UploadFileTask recent = new UploadFileTask(StorjMock.BUCKET,
+                new LocalFile(FileMock.FILE_2.getPath(), false, System.currentTimeMillis(), 100));
+
+        assertEquals(TaskPolicy.MAX_DELAY, TaskPolicy.SMALLEST_FIRST.getDelay(big));
+        assertEquals(TaskPolicy.MAX_DELAY, TaskPolicy.RECENTLY_MODIFIED_FIRST.getDelay(old));
+        assertTrue(TaskPolicy.RECENTLY_MODIFIED_FIRST.getDelay(recent) < TaskPolicy.MAX_DELAY);
+        assertEquals(0, TaskPolicy.FIFO.getDelay(big));
+        assertEquals(0, TaskPolicy.SMALLEST_FIRST.getDelay(new DeleteLocalFileTask(FileMock.FILE_1.getPath())));
+    }
+
+    @Test
+    public void parsePolicy() {
+        assertEquals(TaskPolicy.SMALLEST_FIRST, TaskPolicy.parse("smallest-first"));
+        assertEquals(TaskPolicy.RECENTLY_MODIFIED_FIRST, TaskPolicy.parse("recently-modified-first"));
+        assertEquals(TaskPolicy.FIFO, TaskPolicy.parse("FIFO"));
+    }
+
+    @Test
+    public void taskForRunningFileIsDeferred() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+
+        tasks.add(upload);
+        assertSame(upload, tasks.takeNext(1));
+        assertTrue(tasks.isInFlight("file-1-name"));
+        assertFalse(tasks.isIdle());
+
+        tasks.add(new DeleteCloudFileTask(StorjMock.BUCKET, StorjMock.FILE_1));
+        assertTrue(tasks.isEmpty());
+
+        // the file must be checked again
+        assertTrue(tasks.finished(upload));
+        assertFalse(tasks.isInFlight("file-1-name"));
+        assertTrue(tasks.isIdle());
+    }
+
+    @Test
+    public void checkRunsWhileThreadsAreBusy() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload1 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask upload2 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+
+        tasks.add(upload1);
+        tasks.add(upload2);
+        tasks.add(new CheckStateTask());
+
+        assertSame(upload1, tasks.takeNext(1));
+        assertTrue(tasks.takeNext(1) instanceof CheckStateTask);
+
+        // the queued task waits for a free thread
+        tasks.add(upload1);
+        assertSame(upload2, tasks.peek());
+        assertTrue(tasks.finished(upload1));
+        assertSame(upload2, tasks.takeNext(1));
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void delayedCheckLetsFileTasksRun() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload1 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask upload2 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+        long notBefore = System.currentTimeMillis() + 200;
+
+        tasks.add(upload1);
+        assertTrue(tasks.add(new CheckStateTask(), notBefore));
+        tasks.add(upload2);
+
+        // the check waits for its time, the task queued after it does not
+        assertSame(upload1, tasks.takeNext(2));
+        assertSame(upload2, tasks.takeNext(2));
+        assertTrue(tasks.takeNext(2) instanceof CheckStateTask);
+        assertTrue(System.currentTimeMillis() >= notBefore);
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void queuedCheckBroughtForward() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        long now = System.currentTimeMillis();
+
+        assertTrue(tasks.add(new CheckStateTask(), now + TimeUnit.HOURS.toMillis(1)));
+        assertFalse(tasks.add(new CheckStateTask(), now));
+
+        assertTrue(tasks.takeNext(1) instanceof CheckStateTask);
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    public void tasksFinishedDuringCheck() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload1 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask upload2 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+
+        tasks.add(upload1);
+        tasks.add(upload2);
+        assertSame(upload1, tasks.takeNext(2));
+        assertSame(upload2, tasks.takeNext(2));
+
+        // finished before the check
+        tasks.finished(upload1);
+        tasks.startCheck();
+        tasks.finished(upload2);
+
+        assertFalse(tasks.isFinishedSinceListing(upload1.getName()));
+        assertTrue(tasks.isFinishedSinceListing(upload2.getName()));
+
+        tasks.endCheck();
+        assertFalse(tasks.isFinishedSinceListing(upload2.getName()));
+    }
+
+    @Test
+    public void workloadsAreLimitedSeparately() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload1 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask upload2 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+        DeleteCloudFileTask delete = new DeleteCloudFileTask(StorjMock.BUCKET, StorjMock.SUB_FILE);
+
+        tasks.add(upload1);
+        tasks.add(upload2);
+        tasks.add(delete);
+        assertEquals(2, tasks.getQueueDepth(Workload.UPLOAD));
+        assertEquals(1, tasks.getQueueDepth(Workload.CLOUD_METADATA));
+
+        // the second upload waits for a free upload thread
+        assertSame(upload1, tasks.takeNext(1));
+        assertSame(delete, tasks.takeNext(1));
+        assertEquals(1, tasks.getRunning(Workload.UPLOAD));
+        assertEquals(1, tasks.getQueueDepth(Workload.UPLOAD));
+        assertEquals(0, tasks.getQueueDepth(Workload.CLOUD_METADATA));
+
+        tasks.finished(upload1);
+        assertEquals(0, tasks.getRunning(Workload.UPLOAD));
+        assertSame(upload2, tasks.takeNext(1));
+    }
+
+    @Test
+    public void parentDirCreatedBeforeChildren() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        CreateCloudDirTask dir = new CreateCloudDirTask(StorjMock.BUCKET, FileMock.DIR.getPath());
+        CreateCloudDirTask subDir = new CreateCloudDirTask(StorjMock.BUCKET, FileMock.SUB_DIR.getPath());
+        UploadFileTask subFile = new UploadFileTask(StorjMock.BUCKET, FileMock.SUB_FILE.getPath());
+        UploadFileTask subSubFile = new UploadFileTask(StorjMock.BUCKET, FileMock.SUB_SUB_FILE.getPath());
+        UploadFileTask file = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+
+        tasks.add(dir);
+        tasks.add(subDir);
+        tasks.add(subFile);
+        tasks.add(subSubFile);
+        tasks.add(file);
+
+        // the file in the root does not wait for the dir
+        assertSame(dir, tasks.takeNext(10));
+        assertSame(file, tasks.takeNext(10));
+        assertNull(tasks.poll());
+        assertEquals(3, tasks.size());
+
+        tasks.finished(dir);
+        assertSame(subDir, tasks.takeNext(10));
+        assertSame(subFile, tasks.takeNext(10));
+        assertNull(tasks.poll());
+
+        tasks.finished(subDir);
+        assertSame(subSubFile, tasks.takeNext(10));
+    }
+
+    @Test
+    public void downloadWaitsForLocalDir() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        CreateLocalDirTask dir = new CreateLocalDirTask(StorjMock.DIR);
+        DownloadFileTask subFile = new DownloadFileTask(StorjMock.BUCKET, StorjMock.SUB_FILE);
+
+        tasks.add(dir);
+        tasks.add(subFile);
+
+        // the dir is created by its own task, not by the download
+        assertSame(dir, tasks.takeNext(10));
+        assertNull(tasks.poll());
+
+        tasks.finished(dir);
+        assertSame(subFile, tasks.takeNext(10));
+    }
+
+    @Test
+    public void childrenDeletedBeforeParentDir() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        DeleteLocalFileTask subSubFile = new DeleteLocalFileTask(FileMock.SUB_SUB_FILE.getPath());
+        DeleteLocalFileTask subFile = new DeleteLocalFileTask(FileMock.SUB_FILE.getPath());
+        DeleteLocalFileTask dir = new DeleteLocalFileTask(FileMock.DIR.getPath());
+
+        tasks.add(subSubFile);
+        tasks.add(subFile);
+        tasks.add(dir);
+
+        assertSame(subSubFile, tasks.takeNext(10));
+        assertSame(subFile, tasks.takeNext(10));
+        assertNull(tasks.poll());
+
+        tasks.finished(subFile);
+        assertNull(tasks.poll());
+
+        tasks.finished(subSubFile);
+        assertSame(dir, tasks.takeNext(10));
+    }
+
+    @Test
+    public void replacementWaitsForOtherTasks() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        CreateCloudDirTask createDir = new CreateCloudDirTask(StorjMock.BUCKET, FileMock.DIR.getPath());
+        UploadFileTask subFile = new UploadFileTask(StorjMock.BUCKET, FileMock.SUB_FILE.getPath());
+        DeleteLocalFileTask deleteDir = new DeleteLocalFileTask(FileMock.DIR.getPath());
+
+        tasks.add(createDir);
+        tasks.add(subFile);
+        tasks.add(deleteDir);
+
+        // the delete waits for the file inside the dir, which no longer waits for the dir
+        assertSame(subFile, tasks.takeNext(10));
+        assertNull(tasks.poll());
+
+        tasks.finished(subFile);
+        assertSame(deleteDir, tasks.takeNext(10));
+    }
+
+    @Test
+    public void cancelQueuedTask() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        CreateCloudDirTask dir = new CreateCloudDirTask(StorjMock.BUCKET, FileMock.DIR.getPath());
+        UploadFileTask subFile = new UploadFileTask(StorjMock.BUCKET, FileMock.SUB_FILE.getPath());
+
+        tasks.add(dir);
+        tasks.add(subFile);
+        assertTrue(tasks.cancel(dir.getName()));
+        assertFalse(tasks.cancel(dir.getName()));
+
+        // nothing waits for the cancelled task
+        assertSame(subFile, tasks.takeNext(10));
+        assertTrue(tasks.finished(subFile));
+        assertTrue(tasks.isIdle());
+    }
+
+    @Test
+    public void removeQueuedTasks() throws Exception {
+        TaskQueue tasks = new TaskQueue();
+        UploadFileTask upload1 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_1.getPath());
+        UploadFileTask upload2 = new UploadFileTask(StorjMock.BUCKET, FileMock.FILE_2.getPath());
+        CheckStateTask check = new CheckStateTask();
+
+        tasks.add(upload1);
+        tasks.add(upload2);
+        tasks.add(check);
+
+        assertTrue(tasks.remove(upload1));
+        assertFalse(tasks.remove(upload1));
+        assertTrue(tasks.remove(check));
+        // can be queued again
+        assertTrue(tasks.add(new CheckStateTask()));
+
+        tasks.removeIf(task -> task instanceof CheckStateTask);
+        assertEquals(1, tasks.size());
+        assertSame(upload2, tasks.poll());
+        assertTrue(tasks.isIdle());
+    }
+
+    @Test
+    public void unkeyedTasksKeepOrder() {
+        TaskQueue tasks = new TaskQueue();
+        Runnable task1 = () -> { };
+        Runnable task2 = () -> { };
+
+        tasks.add(task1);
+        tasks.add(task2);
+
+        assertSame(task1, tasks.poll());
+        assertSame(task2, tasks.poll());
+        assertTrue(tasks.isEmpty());
+    }
+
+    private static LocalFile bigFile() {
+        return new LocalFile(FileMock.FILE_2.getPath(), false, FileMock.FILE_2.lastModified(), 20L << 30);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void factory() {
+        ThreadFactory factory = VirtualThreads.factory("test-");
+        if (!VirtualThreads.isSupported()) {
+            assertNull(factory);
+            return;
+        }
+
+        Thread thread = factory.newThread(() -> {
+        });
+        assertEquals("test-1", thread.getName());
+        assertEquals("test-2", factory.newThread(() -> {
+        }).getName());
+    }
+
+    @Test
+    public void executor() throws Exception {
+        StorjExecutorService executor = new StorjExecutorService(Workload.LOCAL_FS, 3, new TaskQueue(), true);
+        try {
+            assertEquals(VirtualThreads.isSupported(), executor.isVirtualThreads());
+            if (!executor.isVirtualThreads()) {
+                // falls back to the thread pool
+                assertEquals(3, executor.getThreads());
+            }
+
+            final String[] threadName = { null };
+            executor.submit(() -> threadName[0] = Thread.currentThread().getName()).get();
+            assertTrue(threadName[0].startsWith(Workload.LOCAL_FS.getId() + "-"));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Kaloyan Raev
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package io.goobox.sync.storj;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.goobox.sync.storj.RetryPolicy.Operation;
+
+public class WatchdogTest {
+
+    @Test
+    public void abortStalledCall() {
+        Watchdog watchdog = new Watchdog();
+        AtomicInteger aborted = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        assertNotNull(watchdog.watch(Operation.GET_FILE_ID, "a.txt", aborted::incrementAndGet));
+        assertEquals(1, watchdog.getWatched());
+
+        watchdog.check(start);
+        assertEquals(0, aborted.get());
+
+        watchdog.check(start + Operation.GET_FILE_ID.getStallTimeout() + 1000);
+        assertEquals(1, aborted.get());
+        assertEquals(1, watchdog.getStalls());
+        assertEquals(0, watchdog.getWatched());
+
+        // aborted once only
+        watchdog.check(start + 2 * Operation.GET_FILE_ID.getStallTimeout());
+        assertEquals(1, aborted.get());
+    }
+
+    @Test
+    public void unwatchedCallNotAborted() {
+        Watchdog watchdog = new Watchdog();
+        AtomicInteger aborted = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        Watchdog.Watch watch = watchdog.watch(Operation.DOWNLOAD, "a.txt", aborted::incrementAndGet);
+
+        watchdog.unwatch(watch);
+        watchdog.check(start + Operation.DOWNLOAD.getStallTimeout() + 1000);
+        assertEquals(0, aborted.get());
+        assertEquals(0, watchdog.getStalls());
+    }
+
+    @Test
+    public void configuredTimeout() {
+        Watchdog watchdog = new Watchdog();
+        watchdog.setStallTimeout(Operation.UPLOAD, 0);
+        assertNull(watchdog.watch(Operation.UPLOAD, "a.txt", () -> { }));
+        assertNull(watchdog.watch(Operation.CREATE_DIR, "dir/", () -> { }));
+
+        AtomicInteger aborted = new AtomicInteger();
+        watchdog.setStallTimeout(Operation.LIST_FILES, 1000);
+        long start = System.currentTimeMillis();
+        watchdog.watch(Operation.LIST_FILES, "Goobox", aborted::incrementAndGet);
+        watchdog.check(start + 2500);
+        assertEquals(1, aborted.get());
+    }
+
+}
@@ -28,7 +28,6 @@ import io.goobox.sync.storj.CreateLocalDirTask;
 import io.goobox.sync.storj.DeleteCloudFileTask;
 import io.goobox.sync.storj.DeleteLocalFileTask;
 import io.goobox.sync.storj.DownloadFileTask;
-import io.goobox.sync.storj.SleepTask;
 import io.goobox.sync.storj.TaskQueue;
 import io.goobox.sync.storj.UploadFileTask;
 import io.goobox.sync.storj.db.DB;
@@ -44,12 +43,12 @@ public class AssertState {
     }
 
     public static void assertSleepEmptyDB() {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertEmptyDB();
     }
 
     public static void assertSynced(File storjFile, FileMock localFile) throws ParseException {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertDB(storjFile, localFile, SyncState.SYNCED);
     }
 
@@ -94,30 +93,44 @@ public class AssertState {
     }
 
     public static void assertForDownloadFailed(File storjFile) throws ParseException {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertDB(storjFile, SyncState.DOWNLOAD_FAILED);
     }
 
     public static void assertForDownloadFailed(File storjFile, FileMock localFile) throws ParseException {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertDB(storjFile, localFile, SyncState.DOWNLOAD_FAILED);
     }
 
     public static void assertForUploadFailed(FileMock localFile) throws ParseException {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertDB(localFile, SyncState.UPLOAD_FAILED);
     }
 
     public static void assertForUploadFailed(File storjFile, FileMock localFile) throws ParseException {
-        assertTaskQueue(SleepTask.class);
+        assertCheckQueued();
         assertDB(storjFile, localFile, SyncState.UPLOAD_FAILED);
     }
 
+    public static void assertConflict(File storjFile, FileMock localFile) throws ParseException {
+        assertCheckQueued();
+        assertDB(storjFile, localFile, SyncState.CONFLICT);
+    }
+
     private static void assertEmptyTaskQueue() {
         TaskQueue tasks = App.getInstance().getTaskQueue();
         assertTrue(tasks.isEmpty());
     }
 
+    /**
+     * Asserts that only the next check is queued.
+     */
+    public static void assertCheckQueued() {
+        TaskQueue tasks = App.getInstance().getTaskQueue();
+        assertEquals(CheckStateTask.class, tasks.poll().getClass());
+        assertTrue(tasks.isEmpty());
+    }
+
     public static void assertTaskQueue(Class<? extends Runnable> task) {
         TaskQueue tasks = App.getInstance().getTaskQueue();
         assertEquals(task, tasks.poll().getClass());
@@ -16,10 +16,18 @@
  */
 package io.goobox.sync.storj.mocks;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import io.goobox.sync.common.overlay.OverlayHelper;
 import io.goobox.sync.storj.App;
+import io.goobox.sync.storj.ConcurrencyLimit;
 import io.goobox.sync.storj.FileWatcher;
+import io.goobox.sync.storj.LocalTree;
+import io.goobox.sync.storj.PollInterval;
+import io.goobox.sync.storj.StorjClient;
 import io.goobox.sync.storj.TaskQueue;
+import io.goobox.sync.storj.Workload;
 import io.goobox.sync.storj.ipc.IpcExecutor;
 import io.goobox.sync.storj.overlay.StorjOverlayIconProvider;
 import io.storj.libstorj.Bucket;
@@ -31,9 +39,13 @@ public class AppMock extends MockUp<App> {
 
     private App instance = new App();
     private Storj storj;
+    private StorjClient storjClient;
     private IpcExecutor ipcExecutor = new IpcExecutor();
     private TaskQueue tasks = new TaskQueue();
     private FileWatcher fileWatcher = new FileWatcher();
+    private LocalTree localTree = new LocalTree(instance.getSyncDir(), instance.getFullScanInterval());
+    private PollInterval pollInterval = new PollInterval(PollInterval.DEFAULT_INTERVAL);
+    private Map<Workload, ConcurrencyLimit> limits = new EnumMap<>(Workload.class);
     private OverlayHelper overlayHelper = new OverlayHelper(
             instance.getSyncDir(), new StorjOverlayIconProvider());
 
@@ -50,6 +62,14 @@ public class AppMock extends MockUp<App> {
         return storj;
     }
 
+    @Mock
+    public StorjClient getStorjClient() {
+        if (storjClient == null) {
+            storjClient = new StorjClient(getStorj());
+        }
+        return storjClient;
+    }
+
     @Mock
     public Bucket getGooboxBucket() {
         return StorjMock.BUCKET;
@@ -70,6 +90,24 @@ public class AppMock extends MockUp<App> {
         return fileWatcher;
     }
 
+    @Mock
+    public LocalTree getLocalTree() {
+        return localTree;
+    }
+
+    @Mock
+    public PollInterval getPollInterval() {
+        return pollInterval;
+    }
+
+    @Mock
+    public ConcurrencyLimit getConcurrencyLimit(Workload workload) {
+        if (!workload.isTransfer()) {
+            return null;
+        }
+        return limits.computeIfAbsent(workload, w -> new ConcurrencyLimit(w, w.getDefaultConcurrency()));
+    }
+
     @Mock
     public OverlayHelper getOverlayHelper() {
         return overlayHelper;
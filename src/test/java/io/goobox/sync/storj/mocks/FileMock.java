@@ -18,9 +18,11 @@ package io.goobox.sync.storj.mocks;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 
 import io.goobox.sync.storj.App;
+import io.goobox.sync.storj.LocalFile;
 
 public class FileMock {
 
@@ -76,4 +78,57 @@ public class FileMock {
         return directory;
     }
 
+    public BasicFileAttributes getAttributes() {
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return getLastModifiedTime();
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return getLastModifiedTime();
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return getLastModifiedTime();
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return !directory;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return directory;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return null;
+            }
+        };
+    }
+
+    public LocalFile toLocalFile() {
+        return new LocalFile(getPath(), getAttributes());
+    }
+
 }
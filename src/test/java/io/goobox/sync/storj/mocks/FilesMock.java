@@ -23,9 +23,11 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
@@ -98,6 +100,18 @@ public class FilesMock extends MockUp<Files> {
         return false;
     }
 
+    @Mock
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        for (FileMock file : files) {
+            if (file.getPath().equals(path)) {
+                return (A) file.getAttributes();
+            }
+        }
+        throw new NoSuchFileException(path.toString());
+    }
+
     @Mock
     public boolean exists(Path path, LinkOption... options) {
         for (FileMock file : files) {